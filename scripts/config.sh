@@ -8,6 +8,8 @@ slaveCommand="run-slave"
 masterCommand="run-master"
 dataFilename="data/input.txt"
 logFilename='log.txt'
+# Options of the programs given to ant (for example "-Dmr.offheap=true")
+jobOptions=""
 AVAILABLE_COMPUTERS_FILE='scripts/computers.txt'
 SCRIPT_FOLDER='scripts/'
 LOG_FOLDER='logs/'
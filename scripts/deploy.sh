@@ -61,7 +61,7 @@ function launch_slave {
     local args="$nb_slaves ${@:3}"
     colorized_echo "${CYAN}" "--- Running slave $c ---"
     echo_command "ssh" "$login@$c" "pkill -u $login -f java"
-    echo_command "ssh" "$login@$c" "cd $remoteFolder;ant $slaveCommand -Dargs-slave=\"$args\" > $logFilename" &
+    echo_command "ssh" "$login@$c" "cd $remoteFolder;ant $slaveCommand -Dargs-slave=\"$args\" $jobOptions > $logFilename" &
 }
 
 # Function to launch the master, after killing all the java processes
@@ -73,7 +73,7 @@ function launch_master {
     local args="$nb_slaves ${@:3}"
     colorized_echo "${CYAN}" "--- Running master $c ---"
     echo_command "ssh" "$login@$c" "pkill -u $login -f java"
-    echo_command "ssh" "$login@$c" "cd $remoteFolder; ant $masterCommand -Dargs-master=\"$args\" > $logFilename" &
+    echo_command "ssh" "$login@$c" "cd $remoteFolder; ant $masterCommand -Dargs-master=\"$args\" $jobOptions > $logFilename" &
 }
 
 # Function to run all the slaves and the master
@@ -125,7 +125,7 @@ function main {
     # local slaves_range=(24)
     local max_slaves=${slaves_range[-1]}
     
-    local header="Number of slaves;Loading;Map 1;Shuffle 1;Reduce 1;Map 2;Shuffle 2;Reduce 2;Total 1;Total 2;Total"
+    local header="Number of slaves;Loading;Map 1;Shuffle 1;Reduce 1;Map 2;Shuffle 2;Reduce 2;Total 1;Total 2;Total;Shuffle raw bytes;Shuffle sent bytes;Codec time;Spilled runs;Spilled bytes;Spill time;Partition imbalance;Dropped below minimum;Dropped above maximum;Dropped stop words"
     local tmp_results_file="results.csv"
     local sleep_before_log=50
 
@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Run a job on this computer only, the master and each slave in its own process,
+# talking over the loopback like on the cluster.
+# $1: number of slaves
+# $2: number of splits per slave
+# $3: the prefix of the split files
+# The options of the programs are the jobOptions of config.sh (for example "-Dmr.offheap=true")
+
+source ./scripts/config.sh
+
+nb_slaves=$1
+nb_splits=$2
+prefix=$3
+build="build"
+computers="${LOG_FOLDER}computers-local.txt"
+
+if [ -z "$prefix" ]; then
+    colorized_echo ${RED} "Usage: $0 <NB_SLAVES> <NB_SPLITS> <SPLITFILE_PREFIX>"
+    exit 1
+fi
+
+mkdir -p $LOG_FOLDER
+yes localhost | head -n $nb_slaves > $computers
+echo_command "ant" "compile" || exit 1
+
+# Each slave gets its id as an argument, since they all have the same hostname
+for i in $(seq 0 $(($nb_slaves - 1))); do
+    colorized_echo ${CYAN} "--- Running slave $i ---"
+    java $jobOptions -cp $build src.slave.Slave $nb_slaves $computers $nb_splits $prefix $i > "${LOG_FOLDER}local-slave-$i.txt" 2>&1 &
+done
+
+# The master retries to connect until the slaves listen
+colorized_echo ${CYAN} "--- Running master ---"
+java $jobOptions -cp $build src.master.Master $nb_slaves $computers | tee "${LOG_FOLDER}local-master.txt"
+wait
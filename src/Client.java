@@ -1,11 +1,17 @@
 package src;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 
 public class Client {
 
+    // the server may not listen yet, when the master and the slaves are started together :
+    // it is tried again during Config.CONNECT_TIMEOUT, like the connections between the slaves
+    private static final long CONNECT_RETRY_DELAY = 100; // ms
+
     private final String hostname;
     private final int port;
 
@@ -37,8 +43,22 @@ public class Client {
         try {
            
             // Send a request to connect to the server is listening
-            // on machine 'localhost' port <port>.
-            socket = new Socket(hostname, port);
+            // on machine 'localhost' port <port>, retrying while it is not listening yet.
+            long deadline = System.currentTimeMillis() + Config.CONNECT_TIMEOUT;
+            while (socket == null) {
+                try {
+                    socket = new Socket(hostname, port);
+                } catch (ConnectException e) {
+                    if (System.currentTimeMillis() >= deadline) {
+                        throw e;
+                    }
+                    Thread.sleep(CONNECT_RETRY_DELAY);
+                }
+            }
+            if (Config.FAULT_TOLERANT) {
+                // the slave sends heartbeats, so a long silence means it is lost
+                socket.setSoTimeout(Config.HEARTBEAT_TIMEOUT);
+            }
 
             System.out.println("Connected to " + hostname + ":" + port);
 
@@ -86,11 +106,18 @@ public class Client {
 
     /**
      * <strong>Blocking</strong> method to receive a serializable object from the server.
+     * The heartbeats of the server are skipped.
      * @return Serializable object received
      */
     public Object receiveObject() throws CommunicationException {
         try {
-            return is.readObject();
+            Object object;
+            do {
+                object = is.readObject();
+            } while (object == SynchronizationMessage.HEARTBEAT);
+            return object;
+        } catch (SocketTimeoutException e) {
+            handleError("No message from " + getAddress() + " for " + Config.HEARTBEAT_TIMEOUT + "ms.", e);
         } catch (IOException e) {
             handleError("Couldn't receive object.", e);
         } catch (ClassNotFoundException e) {
@@ -0,0 +1,316 @@
+package src;
+
+/**
+ * Config.java
+ *
+ * The options of the programs, read from the system properties (for example <code>-Dmr.offheap=true</code>).
+ * With ant, all the properties starting with <code>mr.</code> are passed to the programs.
+ */
+public class Config {
+
+    /**
+     * Store the words counted by the slaves and their counts outside of the heap.
+     */
+    public static final boolean OFF_HEAP = getBoolean("mr.offheap", false);
+
+    /**
+     * Maximum number of entries (distinct words, or words in the second MapReduce) in a batch sent
+     * to another slave during a shuffle. 0 or less to send each partition in a single batch.
+     */
+    public static final int SHUFFLE_BATCH_SIZE = positiveOrUnbounded(getInt("mr.shuffle.batch", 65536));
+
+    /**
+     * Maximum number of batches waiting to be sent to another slave.
+     */
+    public static final int SHUFFLE_IN_FLIGHT = Math.max(1, getInt("mr.shuffle.inflight", 4));
+
+    /**
+     * Time to retry a connection refused by a machine which doesn't listen yet, in milliseconds.
+     */
+    public static final int CONNECT_TIMEOUT = Math.max(0, getInt("mr.net.connect.timeout", 10000));
+
+    /**
+     * Disable the Nagle algorithm on the connections between the slaves.
+     */
+    public static final boolean TCP_NO_DELAY = getBoolean("mr.net.nodelay", true);
+
+    /**
+     * Size of the send buffer of the connections between the slaves, in bytes. 0 for the system default.
+     */
+    public static final int SEND_BUFFER_SIZE = getInt("mr.net.sendbuffer", 0);
+
+    /**
+     * Size of the receive buffer of the connections between the slaves, in bytes. 0 for the system default.
+     */
+    public static final int RECEIVE_BUFFER_SIZE = getInt("mr.net.receivebuffer", 0);
+
+    /**
+     * Compression of the batches sent to the other slaves : <code>none</code>, <code>deflate</code>
+     * (every batch), or <code>adaptive</code> (only when it saves time on the link).
+     */
+    public static final String SHUFFLE_COMPRESSION = getChoice("mr.shuffle.compression", "none",
+        "none", "deflate", "adaptive");
+
+    /**
+     * Level of the compression of the batches, from 1 (fastest) to 9 (smallest).
+     */
+    public static final int SHUFFLE_COMPRESSION_LEVEL = getInt("mr.shuffle.compression.level", 1, 1, 9);
+
+    /**
+     * Send the batches of the first shuffle sorted by word, and reduce them with a k-way merge.
+     * It must be the same for the master and the slaves.
+     */
+    public static final boolean SORTED_SHUFFLE = getBoolean("mr.shuffle.sorted", false);
+
+    /**
+     * Send the words of the second shuffle sorted, each one without the bytes it shares with the previous one.
+     */
+    public static final boolean SHUFFLE_FRONT_CODING = getBoolean("mr.shuffle.frontcoding", false);
+
+    /**
+     * Reduce the words of the first MapReduce while they are shuffled, without the REDUCE step.
+     * Not with {@link #SORTED_SHUFFLE}, which merges all the batches at once.
+     * It must be the same for the master and the slaves.
+     */
+    public static final boolean PIPELINED_REDUCE = getBoolean("mr.reduce.pipelined", false) && !SORTED_SHUFFLE;
+
+    /**
+     * Let the master hand out the splits to the slaves on demand, each slave asking for the next one
+     * when it has read the previous one, instead of giving NB_SPLITS fixed splits to each slave.
+     * All the splits must be readable by all the slaves. It must be the same for the master and the slaves.
+     */
+    public static final boolean DYNAMIC_SPLITS = getBoolean("mr.splits.dynamic", false);
+
+    /**
+     * Launch speculative copies of the straggling splits on the idle slaves, with the dynamic splits :
+     * each split is mapped as a task whose output is kept until the master commits it,
+     * the first copy to finish being committed and the other one discarded.
+     * It must be the same for the master and the slaves.
+     */
+    public static final boolean SPECULATIVE_SPLITS = getBoolean("mr.splits.speculative", false) && DYNAMIC_SPLITS;
+
+    /**
+     * Fraction of the splits which must be mapped before launching speculative copies.
+     */
+    public static final double SPECULATION_THRESHOLD = getDouble("mr.splits.speculative.threshold", 0.75);
+
+    /**
+     * How many times slower than the average split a split must be expected to be to get a speculative copy.
+     */
+    public static final double SPECULATION_SLOWDOWN = getDouble("mr.splits.speculative.slowdown", 1.5);
+
+    /**
+     * Survive the loss of slaves during the map, with the dynamic splits : the output of each split is kept
+     * on the local disk of the slave until the shuffle, the splits of a lost slave are mapped again and its
+     * partition is adopted by another slave. Only the map is covered : a slave or a connection between slaves
+     * lost once the map is over, during the shuffle or the reduce, still stops the job.
+     * Not with {@link #SORTED_SHUFFLE} nor {@link #PIPELINED_REDUCE}. It must be the same for the master and the slaves.
+     */
+    public static final boolean FAULT_TOLERANT = getBoolean("mr.faulttolerant", false) && DYNAMIC_SPLITS
+        && !SORTED_SHUFFLE && !PIPELINED_REDUCE;
+
+    /**
+     * Time between two heartbeats of a slave to the master, in milliseconds, with {@link #FAULT_TOLERANT}.
+     */
+    public static final int HEARTBEAT_INTERVAL = Math.max(1, getInt("mr.heartbeat.interval", 1000));
+
+    /**
+     * Time without any message from a slave after which the master considers it lost, in milliseconds,
+     * with {@link #FAULT_TOLERANT}.
+     */
+    public static final int HEARTBEAT_TIMEOUT = Math.max(1, getInt("mr.heartbeat.timeout", 10000));
+
+    /**
+     * Number of threads mapping the chunks of the splits on each slave.
+     */
+    public static final int MAP_THREADS = Math.max(1, getInt("mr.map.threads",
+        Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Memory budget of the words counted for this slave by all the map threads, in megabytes.
+     * A map thread exceeding its share spills its words to the disk. 0 or less for no budget.
+     * The spilled runs are merged by the reduce, into the table of the reduced words.
+     */
+    public static final long MAP_MEMORY = Math.max(0, getInt("mr.map.memory", 0)) * 1024L * 1024L;
+
+    /**
+     * Directory where the map threads spill their words, and where the output of the map is held on the disk.
+     */
+    public static final String SPILL_DIRECTORY = getString("mr.spill.dir",
+        "/tmp/" + System.getProperty("user.name") + "/spill");
+
+    /**
+     * Directory where each slave writes its part of the result, <code>result-&lt;id&gt;.txt</code>.
+     */
+    public static final String OUTPUT_DIRECTORY = getString("mr.output.dir", "/tmp/echatelin-21");
+
+    /**
+     * Save the result of the first MapReduce of each slave to its disk, to resume the job after the reduce.
+     */
+    public static final boolean CHECKPOINT = getBoolean("mr.checkpoint", false);
+
+    /**
+     * Directory where the slaves save their checkpoints.
+     */
+    public static final String CHECKPOINT_DIRECTORY = getString("mr.checkpoint.dir",
+        "/tmp/" + System.getProperty("user.name") + "/checkpoint");
+
+    /**
+     * Resume the job from the last barrier completed by all the slaves in their checkpoints,
+     * instead of counting the words again. It must be the same for the master and the slaves.
+     */
+    public static final boolean RESUME = getBoolean("mr.resume", false);
+
+    /**
+     * Partitioner of the words of the first MapReduce between the machines : <code>murmur3</code>,
+     * <code>hashcode</code> or the name of a class implementing {@link Partitioner}.
+     * It must be the same for all the slaves.
+     */
+    public static final String PARTITIONER = getString("mr.partitioner", "murmur3");
+
+    /**
+     * Seed of the <code>murmur3</code> partitioner. It must be the same for all the slaves.
+     */
+    public static final int PARTITIONER_SEED = getInt("mr.partitioner.seed", 0x5f3759df);
+
+    /**
+     * Ratio between the biggest partition of the first MapReduce and the average one
+     * above which the master warns that the partitions are unbalanced.
+     */
+    public static final double PARTITION_IMBALANCE = getDouble("mr.partitioner.imbalance", 1.5);
+
+    /**
+     * Number of shards of the reduces on each slave, each merged by its own thread.
+     */
+    public static final int REDUCE_THREADS = Math.max(1, getInt("mr.reduce.threads",
+        Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Number of most frequent words computed instead of sorting all the words, 0 or less to sort them all.
+     * It must be the same for the master and the slaves.
+     */
+    public static final int TOP_K = Math.max(0, getInt("mr.topk", 0));
+
+    /**
+     * Minimum number of occurences of the words kept for the sort, 0 or 1 to keep all of them.
+     */
+    public static final int MIN_COUNT = getInt("mr.filter.mincount", 0);
+
+    /**
+     * Maximum number of occurences of the words kept for the sort, 0 or less to keep all of them.
+     */
+    public static final int MAX_COUNT = getInt("mr.filter.maxcount", 0);
+
+    /**
+     * File of the stop words dropped before the sort, one per line, null to keep all the words.
+     */
+    public static final String STOP_WORDS = getString("mr.filter.stopwords", null);
+
+    private Config() {
+    }
+
+    private static int positiveOrUnbounded(int value) {
+        return value > 0 ? value : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get a boolean option.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @return the value of the option
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Get a string option.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @return the value of the option
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /**
+     * Get an option among a set of values.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @param values the allowed values
+     * @return the value of the option
+     * @throws IllegalArgumentException if the property is not one of the values
+     */
+    public static String getChoice(String name, String defaultValue, String... values) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        for (String v : values) {
+            if (v.equalsIgnoreCase(value.trim())) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Option " + name + " must be one of " + String.join(", ", values)
+            + " : " + value);
+    }
+
+    /**
+     * Get a decimal option.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @return the value of the option
+     * @throws IllegalArgumentException if the property is not a number
+     */
+    public static double getDouble(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " must be a number : " + value, e);
+        }
+    }
+
+    /**
+     * Get an integer option.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @return the value of the option
+     * @throws IllegalArgumentException if the property is not an integer
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " must be an integer : " + value, e);
+        }
+    }
+
+    /**
+     * Get an integer option between two bounds.
+     * @param name the name of the system property
+     * @param defaultValue the value if the property is not set
+     * @param min the minimum value
+     * @param max the maximum value
+     * @return the value of the option
+     * @throws IllegalArgumentException if the property is not an integer between the bounds
+     */
+    public static int getInt(String name, int defaultValue, int min, int max) {
+        int value = getInt(name, defaultValue);
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Option " + name + " must be between " + min + " and " + max
+                + " : " + value);
+        }
+        return value;
+    }
+
+}
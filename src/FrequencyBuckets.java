@@ -0,0 +1,318 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * FrequencyBuckets.java
+ *
+ * The words grouped by their number of occurences, for the sort MapReduce : a counting sort of the words.
+ *
+ * <h2>Storage</h2>
+ *
+ * The buckets of the small numbers of occurences, which hold almost all the words, are in an array
+ * indexed by the number of occurences ; the other ones are in a sorted map. So the buckets are always
+ * iterated in increasing order of occurences, without sorting them.
+ *
+ * The words of a bucket are packed in a single byte array, each one encoded in UTF-8 and preceded
+ * by its length (a varint) : there is no String nor list per word, and merging two buckets or sending
+ * a bucket is a copy of bytes.
+ */
+public class FrequencyBuckets {
+
+    // the buckets from 1 to DENSE_LIMIT - 1 occurences are in the array
+    private static final int DENSE_LIMIT = 1024;
+
+    private final Bucket[] dense = new Bucket[DENSE_LIMIT];
+    private final TreeMap<Integer, Bucket> sparse = new TreeMap<Integer, Bucket>();
+    private long nbWords = 0;
+
+    /**
+     * The words with the same number of occurences.
+     */
+    public static class Bucket {
+
+        private byte[] data = new byte[64];
+        private int length = 0;
+        private int nbWords = 0;
+
+        /**
+         * Get the number of words of the bucket.
+         * @return the number of words
+         */
+        public int getNbWords() {
+            return nbWords;
+        }
+
+        /**
+         * Get the packed words : for each word, its length (a varint) then its UTF-8 bytes.
+         * @return the array, only valid until the bucket is modified
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Get the number of bytes of the packed words.
+         * @return the length of the data
+         */
+        public int getDataLength() {
+            return length;
+        }
+
+        /**
+         * Get an iterator over the words of the bucket.
+         * @return a new iterator, placed before the first word
+         */
+        public WordIterator words() {
+            return new WordIterator(this);
+        }
+
+        private void add(byte[] word, int offset, int wordLength) {
+            ensure(5 + wordLength);
+            int value = wordLength;
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+            System.arraycopy(word, offset, data, length, wordLength);
+            length += wordLength;
+            nbWords++;
+        }
+
+        private void addPacked(byte[] packed, int offset, int packedLength, int n) {
+            ensure(packedLength);
+            System.arraycopy(packed, offset, data, length, packedLength);
+            length += packedLength;
+            nbWords += n;
+        }
+
+        private void ensure(int n) {
+            if (length + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + n, 2 * data.length));
+            }
+        }
+    }
+
+    /**
+     * An iterator over the words of a bucket, which doesn't create any object per word
+     * unless the word is asked as a String.
+     */
+    public static class WordIterator {
+
+        private final Bucket bucket;
+        private int next = 0;
+        private int offset = 0;
+        private int length = 0;
+
+        private WordIterator(Bucket bucket) {
+            this.bucket = bucket;
+        }
+
+        /**
+         * Move to the next word.
+         * @return true if there is a next word, false if the iteration is finished
+         */
+        public boolean next() {
+            if (next >= bucket.length) {
+                return false;
+            }
+            byte[] data = bucket.data;
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[next++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            offset = next;
+            length = value;
+            next += value;
+            return true;
+        }
+
+        /**
+         * @return the array containing the current word, see {@link #offset()}
+         */
+        public byte[] bytes() {
+            return bucket.data;
+        }
+
+        /**
+         * @return the index of the first byte of the current word
+         */
+        public int offset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of bytes of the current word
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return the hash of the current word, equal to the {@link String#hashCode()} of the word
+         */
+        public int hash() {
+            return Utf8.hashCode(bucket.data, offset, length);
+        }
+
+        /**
+         * @return the current word
+         */
+        public String word() {
+            return new String(bucket.data, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A cursor over the buckets which are not empty, in increasing order of occurences.
+     */
+    public class BucketCursor {
+
+        private final Iterator<Entry<Integer, Bucket>> before = sparse.headMap(1).entrySet().iterator();
+        private int index = 0;
+        private Iterator<Entry<Integer, Bucket>> after = null;
+
+        private int count;
+        private Bucket bucket;
+
+        private BucketCursor() {
+        }
+
+        /**
+         * Move to the next bucket.
+         * @return true if there is a next bucket, false if the iteration is finished
+         */
+        public boolean next() {
+            if (before.hasNext()) {
+                return move(before.next());
+            }
+            while (++index < DENSE_LIMIT) {
+                if (dense[index] != null) {
+                    count = index;
+                    bucket = dense[index];
+                    return true;
+                }
+            }
+            if (after == null) {
+                after = sparse.tailMap(DENSE_LIMIT).entrySet().iterator();
+            }
+            return after.hasNext() && move(after.next());
+        }
+
+        private boolean move(Entry<Integer, Bucket> entry) {
+            count = entry.getKey();
+            bucket = entry.getValue();
+            return true;
+        }
+
+        /**
+         * @return the number of occurences of the words of the current bucket
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @return the current bucket, which must not be modified
+         */
+        public Bucket bucket() {
+            return bucket;
+        }
+    }
+
+    /**
+     * Add a word.
+     * @param count the number of occurences of the word
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param offset the index of the first byte of the word
+     * @param length the number of bytes of the word
+     */
+    public void add(int count, byte[] word, int offset, int length) {
+        bucket(count).add(word, offset, length);
+        nbWords++;
+    }
+
+    /**
+     * Add some words already packed like in a bucket.
+     * @param count the number of occurences of the words
+     * @param packed the buffer containing the packed words, see {@link Bucket#getData()}
+     * @param offset the index of the first byte of the packed words
+     * @param length the number of bytes of the packed words
+     * @param n the number of words
+     */
+    public void addPacked(int count, byte[] packed, int offset, int length, int n) {
+        bucket(count).addPacked(packed, offset, length, n);
+        nbWords += n;
+    }
+
+    /**
+     * Add all the words of a bucket.
+     * @param count the number of occurences of the words
+     * @param other the bucket to add
+     */
+    public void addAll(int count, Bucket other) {
+        addPacked(count, other.data, 0, other.length, other.nbWords);
+    }
+
+    /**
+     * Add all the words of other buckets.
+     * @param other the buckets to add
+     */
+    public void addAll(FrequencyBuckets other) {
+        BucketCursor cursor = other.cursor();
+        while (cursor.next()) {
+            addAll(cursor.count(), cursor.bucket());
+        }
+    }
+
+    /**
+     * Get the number of words.
+     * @return the number of words of all the buckets
+     */
+    public long getNbWords() {
+        return nbWords;
+    }
+
+    /**
+     * Check if there is no word.
+     * @return true if there is no word
+     */
+    public boolean isEmpty() {
+        return nbWords == 0;
+    }
+
+    /**
+     * Get a cursor over the buckets, in increasing order of occurences.
+     * @return a new cursor, placed before the first bucket
+     */
+    public BucketCursor cursor() {
+        return new BucketCursor();
+    }
+
+    private Bucket bucket(int count) {
+        Bucket bucket;
+        if (count >= 1 && count < DENSE_LIMIT) {
+            bucket = dense[count];
+            if (bucket == null) {
+                bucket = dense[count] = new Bucket();
+            }
+        } else {
+            bucket = sparse.get(count);
+            if (bucket == null) {
+                bucket = new Bucket();
+                sparse.put(count, bucket);
+            }
+        }
+        return bucket;
+    }
+
+}
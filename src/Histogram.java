@@ -0,0 +1,86 @@
+package src;
+
+import java.io.Serializable;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Histogram.java
+ *
+ * The number of words for each number of occurences, sent by the slaves to the master
+ * to compute the {@link SplitPoints} of the sort MapReduce.
+ */
+public class Histogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TreeMap<Integer, Long> nbWords = new TreeMap<Integer, Long>();
+    private long total = 0;
+
+    /**
+     * Add some words with a number of occurences.
+     * @param count the number of occurences
+     * @param n the number of words
+     */
+    public void add(int count, long n) {
+        nbWords.merge(count, n, Long::sum);
+        total += n;
+    }
+
+    /**
+     * Add all the words of another histogram.
+     * @param other the histogram to add
+     */
+    public void addAll(Histogram other) {
+        for (Entry<Integer, Long> bar : other.nbWords.entrySet()) {
+            add(bar.getKey(), bar.getValue());
+        }
+    }
+
+    /**
+     * Get the number of words.
+     * @return the number of words of all the bars
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Compute the split points giving about the same number of words to each machine.
+     * The split point k is placed where the number of words before it reaches (k + 1) / n of the total,
+     * inside the bar of the number of occurences where it happens.
+     * @param n the number of machines
+     * @return the split points
+     */
+    public SplitPoints computeSplitPoints(int n) {
+        if (total == 0) {
+            return SplitPoints.allToFirst(n);
+        }
+        int[] counts = new int[n - 1];
+        long[] positions = new long[n - 1];
+        int k = 0;
+        long before = 0;
+        for (Entry<Integer, Long> bar : nbWords.entrySet()) {
+            long size = bar.getValue();
+            // the words (before, before + size] are in this bar
+            while (k < n - 1 && (k + 1) * total / n <= before + size) {
+                long target = (k + 1) * total / n - before;
+                counts[k] = bar.getKey();
+                if (target == size) {
+                    positions[k] = SplitPoints.MAX_POSITION;
+                } else {
+                    // the fraction target / size of the positions of the bar, minus one since the split point is included
+                    positions[k] = Math.max(0, (long) ((double) target / size * (SplitPoints.MAX_POSITION + 1)) - 1);
+                }
+                k++;
+            }
+            before += size;
+        }
+        return new SplitPoints(counts, positions);
+    }
+
+    public String toString() {
+        return total + " words with " + nbWords.size() + " numbers of occurences";
+    }
+
+}
@@ -0,0 +1,81 @@
+package src;
+
+import java.util.Arrays;
+
+import src.master.Master;
+import src.slave.Slave;
+
+/**
+ * LocalCluster.java
+ *
+ * Runs a whole job on this computer, in a single JVM : the master and the slaves are started as threads,
+ * all of them on <code>localhost</code>, and talk with the same messages and connections (over the loopback)
+ * as on a cluster. It makes the experiments reproducible without the computers of the school,
+ * for example to compare the options or to profile a slave.
+ *
+ * The options are read from the system properties as usual. Since all the slaves share the processors
+ * of the computer, {@link Config#MAP_THREADS} and {@link Config#REDUCE_THREADS} should be lowered.
+ */
+public class LocalCluster {
+
+    /**
+     * Starts the slaves and the master.
+     *
+     * <h2>Arguments</h2>
+     * <ul>
+     * <li>args[0] : NB_SLAVES</li>
+     * <li>args[1] : NB_SPLITS, the number of splits of each slave</li>
+     * <li>args[2] : SPLITFILE_PREFIX</li>
+     * </ul>
+     *
+     * @param args the arguments : NB_SLAVES NB_SPLITS SPLITFILE_PREFIX
+     */
+    public static void main(String[] args) {
+
+        if (args.length != 3) {
+            System.err.println("Usage: java LocalCluster <NB_SLAVES> <NB_SPLITS> <SPLITFILE_PREFIX>");
+            System.out.println("Arguments were :");
+            Utils.prettyPrintTable(args);
+            System.exit(1);
+        }
+        int nbSlaves = 0;
+        int nbSplits = 0;
+        try {
+            nbSlaves = Integer.parseInt(args[0]);
+            nbSplits = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: java LocalCluster <NB_SLAVES> <NB_SPLITS> <SPLITFILE_PREFIX>");
+            System.exit(1);
+        }
+        Slave.setSplitFilePrefix(args[2]);
+        String[] hostnames = new String[nbSlaves];
+        Arrays.fill(hostnames, "localhost");
+
+        System.out.println("Local cluster of " + nbSlaves + " slaves started !");
+
+        // The master retries to connect until the slaves listen
+
+        Slave[] slaves = new Slave[nbSlaves];
+        for (int i = 0; i < nbSlaves; i++) {
+            slaves[i] = new Slave(i, hostnames, nbSlaves, nbSplits);
+            slaves[i].start();
+        }
+        try {
+            new Master(hostnames, nbSlaves).run();
+            for (Slave slave : slaves) {
+                slave.join();
+            }
+        } catch (CommunicationException e) {
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while waiting for the slaves to finish");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("Local cluster finished.");
+        // the threads of the connections between the slaves may still be waiting
+        System.exit(0);
+    }
+
+}
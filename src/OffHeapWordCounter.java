@@ -0,0 +1,303 @@
+package src;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * OffHeapWordCounter.java
+ *
+ * A hash table from words to their number of occurences, with open addressing (linear probing),
+ * whose words and counts are stored outside of the heap, in direct ByteBuffers.
+ *
+ * <h2>Storage</h2>
+ *
+ * The words are kept as UTF-8 bytes in an arena of chunks, each word being preceded by its length.
+ * The table is a direct buffer of slots of 16 bytes : the reference of the word in the arena
+ * (index of the chunk and offset in the chunk, plus one so that 0 means an empty slot),
+ * the hash of the word (equal to the {@link String#hashCode()} of the word) and its count.
+ *
+ * The words are hashed and compared directly on their bytes, so no String is created
+ * unless a cursor is asked for one. The heap used doesn't depend on the number of words,
+ * the garbage collector has nothing to scan, and the vocabulary is only limited
+ * by the direct memory (<code>-XX:MaxDirectMemorySize</code>, equal to the maximum heap size by default).
+ */
+public class OffHeapWordCounter implements WordCounts, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.7f;
+    // the index of a slot multiplied by the size of a slot must fit in an int
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int REFERENCE = 0;
+    private static final int HASH = 8;
+    private static final int COUNT = 12;
+
+    // the chunks grow from the first size to the maximum one, so that a small table (a batch of the shuffle)
+    // doesn't reserve a lot of direct memory
+    private static final int FIRST_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private transient ByteBuffer slots;
+    private transient int capacity;
+    private transient int size;
+    private transient int threshold;
+
+    private transient ArrayList<ByteBuffer> chunks;
+    private transient ByteBuffer chunk;
+
+    private transient byte[] buffer;
+
+    /**
+     * Constructor.
+     */
+    public OffHeapWordCounter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     * @param expectedSize the number of words expected, to avoid resizing the table
+     */
+    public OffHeapWordCounter(int expectedSize) {
+        init(expectedSize);
+    }
+
+    private void init(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+        size = 0;
+        chunks = new ArrayList<ByteBuffer>();
+        chunk = null;
+        buffer = new byte[64];
+    }
+
+    @Override
+    public void increment(byte[] word, int length) {
+        add(word, length, 1);
+    }
+
+    @Override
+    public void add(byte[] word, int length, int count) {
+        int hash = Utf8.hashCode(word, 0, length);
+        int mask = capacity - 1;
+        int i = spread(hash) & mask;
+        long reference;
+        while ((reference = slots.getLong(i * SLOT_SIZE + REFERENCE)) != 0) {
+            if (slots.getInt(i * SLOT_SIZE + HASH) == hash && keyEquals(reference, word, length)) {
+                int position = i * SLOT_SIZE + COUNT;
+                slots.putInt(position, slots.getInt(position) + count);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        slots.putLong(i * SLOT_SIZE + REFERENCE, store(word, length));
+        slots.putInt(i * SLOT_SIZE + HASH, hash);
+        slots.putInt(i * SLOT_SIZE + COUNT, count);
+        if (++size > threshold) {
+            resize();
+        }
+    }
+
+    @Override
+    public void add(String word, int count) {
+        if (buffer.length < Utf8.maxLength(word)) {
+            buffer = new byte[Math.max(Utf8.maxLength(word), 2 * buffer.length)];
+        }
+        add(buffer, Utf8.encode(word, buffer), count);
+    }
+
+    @Override
+    public void add(WordCursor cursor) {
+        add(cursor.wordBytes(), cursor.wordLength(), cursor.count());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public WordCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A cursor over the words of the table, which only creates a String if {@link #word()} is called.
+     */
+    private class Cursor implements WordCursor {
+
+        private int index = -1;
+        private byte[] bytes = new byte[64];
+        private int length = -1;
+
+        @Override
+        public boolean next() {
+            length = -1;
+            while (++index < capacity) {
+                if (slots.getLong(index * SLOT_SIZE + REFERENCE) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String word() {
+            load();
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] wordBytes() {
+            load();
+            return bytes;
+        }
+
+        @Override
+        public int wordLength() {
+            load();
+            return length;
+        }
+
+        @Override
+        public int hash() {
+            return slots.getInt(index * SLOT_SIZE + HASH);
+        }
+
+        @Override
+        public int count() {
+            return slots.getInt(index * SLOT_SIZE + COUNT);
+        }
+
+        private void load() {
+            if (length < 0) {
+                long reference = slots.getLong(index * SLOT_SIZE + REFERENCE) - 1;
+                ByteBuffer c = chunks.get((int) (reference >>> 32));
+                int offset = (int) reference;
+                length = c.getInt(offset);
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, 2 * bytes.length)];
+                }
+                for (int k = 0; k < length; k++) {
+                    bytes[k] = c.get(offset + 4 + k);
+                }
+            }
+        }
+    }
+
+    ///////////////////////////// ARENA /////////////////////////////
+
+    /**
+     * Copy a word at the end of the arena.
+     * @return the reference of the word, never 0
+     */
+    private long store(byte[] word, int length) {
+        if (chunk == null || chunk.remaining() < 4 + length) {
+            int chunkSize = chunk == null ? FIRST_CHUNK_SIZE : Math.min(2 * chunk.capacity(), MAX_CHUNK_SIZE);
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, 4 + length)).order(ByteOrder.nativeOrder());
+            chunks.add(chunk);
+        }
+        int offset = chunk.position();
+        chunk.putInt(length);
+        chunk.put(word, 0, length);
+        return ((long) (chunks.size() - 1) << 32 | offset) + 1;
+    }
+
+    private boolean keyEquals(long reference, byte[] word, int length) {
+        reference--;
+        ByteBuffer c = chunks.get((int) (reference >>> 32));
+        int offset = (int) reference;
+        if (c.getInt(offset) != length) {
+            return false;
+        }
+        offset += 4;
+        for (int k = 0; k < length; k++) {
+            if (c.get(offset + k) != word[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ///////////////////////////// TABLE MANAGEMENT /////////////////////////////
+
+    private void resize() {
+        if (capacity == MAX_CAPACITY) {
+            // beyond the load factor, the probes of a full table would go through most of the slots
+            throw new IllegalStateException("Too many words for an off-heap table : " + size + ", at most "
+                + threshold + " words fit in " + MAX_CAPACITY + " slots");
+        }
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(2 * oldCapacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldCapacity; j++) {
+            long reference = oldSlots.getLong(j * SLOT_SIZE + REFERENCE);
+            if (reference != 0) {
+                int hash = oldSlots.getInt(j * SLOT_SIZE + HASH);
+                int i = spread(hash) & mask;
+                while (slots.getLong(i * SLOT_SIZE + REFERENCE) != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots.putLong(i * SLOT_SIZE + REFERENCE, reference);
+                slots.putInt(i * SLOT_SIZE + HASH, hash);
+                slots.putInt(i * SLOT_SIZE + COUNT, oldSlots.getInt(j * SLOT_SIZE + COUNT));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        // a direct buffer is filled with zeros : all the slots are empty
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize && capacity < MAX_CAPACITY) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    ///////////////////////////// SERIALIZATION /////////////////////////////
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        WordCursor cursor = cursor();
+        while (cursor.next()) {
+            out.writeInt(cursor.wordLength());
+            out.write(cursor.wordBytes(), 0, cursor.wordLength());
+            out.writeInt(cursor.count());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        init(n);
+        for (int k = 0; k < n; k++) {
+            int length = in.readInt();
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, 2 * buffer.length)];
+            }
+            in.readFully(buffer, 0, length);
+            add(buffer, length, in.readInt());
+        }
+    }
+
+}
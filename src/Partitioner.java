@@ -0,0 +1,49 @@
+package src;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Partitioner.java
+ *
+ * Chooses the machine reducing a word in the first MapReduce, from the bytes of the word.
+ *
+ * The partitioner is chosen by {@link Config#PARTITIONER} : <code>murmur3</code> (the default),
+ * <code>hashcode</code>, or the name of a class implementing this interface with a public constructor
+ * taking the number of machines (an int).
+ */
+public interface Partitioner {
+
+    /**
+     * Get the machine of a word.
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param offset the index of the first byte of the word
+     * @param length the number of bytes of the word
+     * @return the id of the machine, between 0 and the number of machines - 1
+     */
+    int partition(byte[] word, int offset, int length);
+
+    /**
+     * Create the partitioner of the configuration.
+     * @param nbMachines the number of machines
+     * @return the partitioner
+     * @throws IllegalArgumentException if the partitioner can't be created
+     */
+    static Partitioner create(int nbMachines) {
+        switch (Config.PARTITIONER) {
+        case "murmur3":
+            return (word, offset, length) ->
+                (int) ((Integer.toUnsignedLong(Murmur3.hash32(word, offset, length, Config.PARTITIONER_SEED))
+                    * nbMachines) >>> 32);
+        case "hashcode":
+            return (word, offset, length) -> Math.floorMod(Utf8.hashCode(word, offset, length), nbMachines);
+        default:
+            try {
+                Constructor<?> constructor = Class.forName(Config.PARTITIONER).getConstructor(int.class);
+                return (Partitioner) constructor.newInstance(nbMachines);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Can't create the partitioner " + Config.PARTITIONER, e);
+            }
+        }
+    }
+
+}
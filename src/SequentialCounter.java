@@ -5,12 +5,11 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -72,7 +71,7 @@ public class SequentialCounter {
 
 
     // The number of occurences of the words in the file.
-    private final HashMap<String, Integer> map = new HashMap<String, Integer>();
+    private final WordCounter map = new WordCounter();
     private ArrayList<Entry<String, Integer>> sortedMap = new ArrayList<Entry<String, Integer>>();
 
     /**
@@ -154,11 +153,7 @@ public class SequentialCounter {
                         continue;
                     }
                     w = w.toLowerCase();
-                    if (map.containsKey(w)) {
-                        map.put(w, map.get(w) + 1);
-                    } else {
-                        map.put(w, 1);
-                    }
+                    map.increment(w);
                 }
             }
         } catch (IOException e) {
@@ -171,15 +166,12 @@ public class SequentialCounter {
      * Sort the map by occurences (values) and then by alphabetical order (keys).
      */
     public void sort() {
-        this.map.entrySet()
-            .stream()
-            .sorted(MAP_COMPARATOR)
-            .forEach(new Consumer<Entry<String,Integer>>() {
-                @Override
-                public void accept(Entry<String,Integer> t) {
-                    sortedMap.add(t);
-                }
-            });
+        sortedMap.ensureCapacity(this.map.size());
+        WordCounter.Cursor cursor = this.map.cursor();
+        while (cursor.next()) {
+            sortedMap.add(new SimpleImmutableEntry<String, Integer>(cursor.word(), cursor.count()));
+        }
+        sortedMap.sort(MAP_COMPARATOR);
     }
 
     private void printResult(PrintStream out) {
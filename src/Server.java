@@ -73,9 +73,10 @@ public class Server {
 
     /**
      * Send a serializable object to the client.
+     * Several threads can send objects at the same time, each object is sent as a whole.
      * @param object the object to send
      */
-    public void sendObject(Serializable object) throws CommunicationException {
+    public synchronized void sendObject(Serializable object) throws CommunicationException {
         try {
             os.writeObject(object);
             os.flush();
@@ -0,0 +1,149 @@
+package src;
+
+/**
+ * ShardedWordCounts.java
+ *
+ * Words counted in several independent tables (shards), each word belonging to the shard given by its hash.
+ *
+ * Since the shards share nothing, each of them can be filled or read by its own thread without any lock,
+ * with {@link #getShard(int)}. As a whole, it is a table like the others, whose cursor goes through
+ * the shards one after the other.
+ */
+public class ShardedWordCounts implements WordCounts {
+
+    private static final long serialVersionUID = 1L;
+
+    private final WordCounts[] shards;
+
+    /**
+     * Constructor.
+     * @param nbShards the number of shards
+     * @param expectedSize the number of words expected in all the shards
+     */
+    public ShardedWordCounts(int nbShards, int expectedSize) {
+        shards = new WordCounts[nbShards];
+        for (int i = 0; i < nbShards; i++) {
+            shards[i] = WordCounts.create(expectedSize / nbShards);
+        }
+    }
+
+    /**
+     * Get the shard of a word.
+     * The high bits of a multiplicative hash are used, so that the words of a shard
+     * don't share the low bits used to index the tables.
+     * @param hash the hash of the word, equal to {@link String#hashCode()}
+     * @param nbShards the number of shards
+     * @return the index of the shard, between 0 and nbShards - 1
+     */
+    public static int shardOf(int hash, int nbShards) {
+        return (int) ((Integer.toUnsignedLong(hash * 0x9E3779B9) * nbShards) >>> 32);
+    }
+
+    /**
+     * Get the number of shards.
+     * @return the number of shards
+     */
+    public int getNbShards() {
+        return shards.length;
+    }
+
+    /**
+     * Get a shard, to fill or read it independently of the others.
+     * Only the words of the shard must be added to it.
+     * @param index the index of the shard
+     * @return the table of the shard
+     */
+    public WordCounts getShard(int index) {
+        return shards[index];
+    }
+
+    @Override
+    public void increment(byte[] word, int length) {
+        add(word, length, 1);
+    }
+
+    @Override
+    public void add(byte[] word, int length, int count) {
+        shards[shardOf(Utf8.hashCode(word, 0, length), shards.length)].add(word, length, count);
+    }
+
+    @Override
+    public void add(String word, int count) {
+        shards[shardOf(word.hashCode(), shards.length)].add(word, count);
+    }
+
+    @Override
+    public void add(WordCursor cursor) {
+        shards[shardOf(cursor.hash(), shards.length)].add(cursor);
+    }
+
+    /**
+     * Add all the occurences counted by another table. The shards of a table with as many shards
+     * are added to the shards of this one in parallel, each by its own thread.
+     * @param other the other table
+     */
+    @Override
+    public void addAll(WordCounts other) {
+        if (other instanceof ShardedWordCounts && ((ShardedWordCounts) other).getNbShards() == shards.length) {
+            ShardedWordCounts sharded = (ShardedWordCounts) other;
+            Utils.runInParallel(shards.length, s -> shards[s].addAll(sharded.getShard(s)));
+        } else {
+            WordCounts.super.addAll(other);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (WordCounts shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public WordCursor cursor() {
+        return new WordCursor() {
+
+            private int index = 0;
+            private WordCursor current = shards[0].cursor();
+
+            @Override
+            public boolean next() {
+                while (!current.next()) {
+                    if (++index == shards.length) {
+                        return false;
+                    }
+                    current = shards[index].cursor();
+                }
+                return true;
+            }
+
+            @Override
+            public String word() {
+                return current.word();
+            }
+
+            @Override
+            public byte[] wordBytes() {
+                return current.wordBytes();
+            }
+
+            @Override
+            public int wordLength() {
+                return current.wordLength();
+            }
+
+            @Override
+            public int hash() {
+                return current.hash();
+            }
+
+            @Override
+            public int count() {
+                return current.count();
+            }
+        };
+    }
+
+}
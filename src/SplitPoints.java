@@ -0,0 +1,115 @@
+package src;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * SplitPoints.java
+ *
+ * The attribution of the words to the machines for the sort MapReduce, computed by the master
+ * from the {@link Histogram} of the occurences so that each machine gets about the same number of words.
+ *
+ * The words are ordered by their number of occurences, then by the position of their hash
+ * (see {@link #position(int)}). The machine m is responsible for the words between the split point m - 1
+ * (excluded) and the split point m (included), the first machine from the beginning and the last one to the end.
+ * Since the machines are ordered like the occurences, the outputs of the machines one after the other
+ * are still sorted. A number of occurences shared by a lot of words (typically 1) can be split
+ * between several machines, according to the hashes of the words.
+ */
+public class SplitPoints implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the last position of a hash */
+    public static final long MAX_POSITION = 0xFFFFFFFFL;
+
+    // split point k : (counts[k], positions[k]), for the machines 0 to n - 2
+    private final int[] counts;
+    private final long[] positions;
+
+    /**
+     * Constructor.
+     * @param counts the numbers of occurences of the split points, in increasing order
+     * @param positions the positions of the split points for their number of occurences
+     */
+    public SplitPoints(int[] counts, long[] positions) {
+        this.counts = counts;
+        this.positions = positions;
+    }
+
+    /**
+     * Get the position of a word among the words with the same number of occurences,
+     * from a multiplicative hash so that it is spread uniformly.
+     * @param hash the hash of the word, equal to its {@link String#hashCode()}
+     * @return a position between 0 and {@link #MAX_POSITION}
+     */
+    public static long position(int hash) {
+        return Integer.toUnsignedLong(hash * 0x9E3779B9);
+    }
+
+    /**
+     * Gives the id of the machine that should handle a word.
+     * @param count the number of occurences of the word
+     * @param position the position of the word, see {@link #position(int)}
+     * @return the id of the machine, between 0 and the number of machines - 1
+     */
+    public int attributeTo(int count, long position) {
+        // first split point greater than or equal to (count, position)
+        int low = 0;
+        int high = counts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (counts[middle] < count || (counts[middle] == count && positions[middle] < position)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Check if all the words with a number of occurences go to the same machine.
+     * @param count the number of occurences
+     * @return true if they go to the same machine, false if they are split between several machines
+     */
+    public boolean isWhole(int count) {
+        return attributeTo(count, 0) == attributeTo(count, MAX_POSITION);
+    }
+
+    /**
+     * Get the number of machines.
+     * @return the number of split points + 1
+     */
+    public int getNbMachines() {
+        return counts.length + 1;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int k = 0; k < counts.length; k++) {
+            if (k > 0) {
+                sb.append(", ");
+            }
+            sb.append(counts[k]);
+            if (positions[k] != MAX_POSITION) {
+                sb.append(String.format("@%.2f", (double) positions[k] / MAX_POSITION));
+            }
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * Create split points which give all the words to the first machine.
+     * @param nbMachines the number of machines
+     * @return the split points
+     */
+    public static SplitPoints allToFirst(int nbMachines) {
+        int[] counts = new int[nbMachines - 1];
+        long[] positions = new long[nbMachines - 1];
+        Arrays.fill(counts, Integer.MAX_VALUE);
+        Arrays.fill(positions, MAX_POSITION);
+        return new SplitPoints(counts, positions);
+    }
+
+}
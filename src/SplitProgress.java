@@ -0,0 +1,50 @@
+package src;
+
+import java.io.Serializable;
+
+/**
+ * SplitProgress.java
+ *
+ * The progress of the map of a split, sent by a slave to the master with the speculative splits,
+ * so that the master can find the straggling splits. The master answers with
+ * {@link SynchronizationMessage#CONTINUE_SPLIT} or {@link SynchronizationMessage#DISCARD_SPLIT}
+ * while the split is mapped, and with {@link SynchronizationMessage#COMMIT_SPLIT}
+ * or {@link SynchronizationMessage#DISCARD_SPLIT} once it is done.
+ */
+public class SplitProgress implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int split;
+    private final double progress;
+    private final boolean done;
+
+    /**
+     * Constructor.
+     * @param split the number of the split
+     * @param progress the fraction of the split already read, between 0 and 1
+     * @param done true if the map of the split is over and its output waits to be committed
+     */
+    public SplitProgress(int split, double progress, boolean done) {
+        this.split = split;
+        this.progress = progress;
+        this.done = done;
+    }
+
+    public int getSplit() {
+        return split;
+    }
+
+    public double getProgress() {
+        return progress;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public String toString() {
+        return "split " + split + (done ? " done" : String.format(" at %.0f%%", 100 * progress));
+    }
+
+}
@@ -0,0 +1,95 @@
+package src;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Statistics.java
+ *
+ * Counters measured by a slave during a job (bytes, durations...), sent to the master at the end
+ * of the job and summed over all the slaves. A counter never set is worth 0.
+ */
+public class Statistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** size of the frames of the shuffles before compression, in bytes */
+    public static final String SHUFFLE_RAW_BYTES = "shuffle.raw.bytes";
+    /** size of the frames of the shuffles sent on the network, in bytes */
+    public static final String SHUFFLE_SENT_BYTES = "shuffle.sent.bytes";
+    /** number of frames of the shuffles sent compressed */
+    public static final String SHUFFLE_COMPRESSED_FRAMES = "shuffle.compressed.frames";
+    /** time spent compressing and decompressing the frames of the shuffles, in nanoseconds */
+    public static final String SHUFFLE_CODEC_TIME = "shuffle.codec.nanos";
+    /** number of runs spilled to the disk by the map */
+    public static final String SPILL_RUNS = "spill.runs";
+    /** size of the runs spilled to the disk by the map, in bytes */
+    public static final String SPILL_BYTES = "spill.bytes";
+    /** time spent writing and merging the runs spilled to the disk, in nanoseconds */
+    public static final String SPILL_TIME = "spill.nanos";
+    /** number of words dropped before the sort because they are less frequent than the minimum */
+    public static final String FILTER_MIN_COUNT = "filter.min.count";
+    /** number of words dropped before the sort because they are more frequent than the maximum */
+    public static final String FILTER_MAX_COUNT = "filter.max.count";
+    /** number of words dropped before the sort because they are stop words */
+    public static final String FILTER_STOP_WORDS = "filter.stop.words";
+
+    /**
+     * Get the counter of the entries (words and their count) produced by the maps
+     * for a machine in the first MapReduce.
+     * @param machine the id of the machine
+     * @return the name of the counter
+     */
+    public static String partitionEntries(int machine) {
+        return "partition." + machine + ".entries";
+    }
+
+    /**
+     * Get the counter of the bytes sent to a machine during the shuffle of the first MapReduce.
+     * @param machine the id of the machine
+     * @return the name of the counter
+     */
+    public static String partitionBytes(int machine) {
+        return "partition." + machine + ".bytes";
+    }
+
+    private final LinkedHashMap<String, Long> counters = new LinkedHashMap<String, Long>();
+
+    /**
+     * Add a value to a counter.
+     * @param name the name of the counter
+     * @param value the value to add
+     */
+    public synchronized void add(String name, long value) {
+        counters.put(name, get(name) + value);
+    }
+
+    /**
+     * Get the value of a counter.
+     * @param name the name of the counter
+     * @return its value, 0 if it was never set
+     */
+    public synchronized long get(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Add all the counters of other statistics to these ones.
+     * @param other the statistics to add
+     */
+    public synchronized void addAll(Statistics other) {
+        synchronized (other) {
+            for (Entry<String, Long> counter : other.counters.entrySet()) {
+                add(counter.getKey(), counter.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return counters.toString();
+    }
+
+}
@@ -7,14 +7,21 @@ package src;
  */
 public enum SynchronizationMessage {
     MASTER_AWAKE, // when the master is launched
+    HEARTBEAT, // sent regularly by the slave to show it is alive, with the fault tolerance
     READY_TO_MAP, // when the slave is ready to map
     START, // when the master launches the mapping
-    READY_TO_SHUFFLE, // when the slave is ready to shuffle
+    NEXT_SPLIT, // when the slave asks for a split to map, with the dynamic splits
+    NO_MORE_SPLITS, // when the master has no more split to give
+    CONTINUE_SPLIT, // when the slave can go on mapping a split, with the speculative splits
+    COMMIT_SPLIT, // when the output of a split mapped by the slave is kept
+    DISCARD_SPLIT, // when the output of a split mapped by the slave is thrown away, another copy being kept
+    READY_TO_SHUFFLE, // when the slave is ready to shuffle, followed by the entries of each partition (long[])
     SHUFFLE, // when the master launches the shuffle because all slaves are ready
     READY_TO_REDUCE, // when the slave is ready to reduce
     REDUCE, // when the master launches the reduce because all slaves are ready
     REDUCE_END, // at the end of the reduce
     MAP, // when the master launches the second map
+    TOP_K, // when the master asks for the most frequent words instead of the second map
     READY_TO_COORDINATE, // when the slave is ready to coordinate for ranges
     COORDINATE, // when the master launches the coordination for the ranges
     // coordination for the ranges
@@ -0,0 +1,113 @@
+package src;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * TopWords.java
+ *
+ * The K most frequent words, ordered by decreasing number of occurences then alphabetically.
+ *
+ * Each slave selects the top words of its own words with a heap of K words, and the master merges
+ * the tops of the slaves. Since all the occurences of a word are reduced on the same slave,
+ * the K most frequent words of all the slaves are among the tops of the slaves, so the result is exact.
+ */
+public class TopWords implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // a word is better than another one if it is more frequent, or as frequent and alphabetically before
+    private static final Comparator<Word> WORST_FIRST = Comparator.<Word>comparingInt(w -> w.count)
+        .thenComparing(w -> w.word, Comparator.reverseOrder());
+
+    private final int k;
+    // the best word first
+    private final Word[] words;
+
+    private static class Word implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String word;
+        private final int count;
+
+        Word(String word, int count) {
+            this.word = word;
+            this.count = count;
+        }
+    }
+
+    private TopWords(int k, Word[] words) {
+        Arrays.sort(words, WORST_FIRST.reversed());
+        this.k = k;
+        this.words = words.length > k ? Arrays.copyOf(words, k) : words;
+    }
+
+    /**
+     * Select the most frequent words of a table. Only the words entering the heap are created as Strings.
+     * @param counts the words and their number of occurences
+     * @param k the number of words to keep
+     * @return the top words of the table
+     */
+    public static TopWords of(WordCounts counts, int k) {
+        PriorityQueue<Word> heap = new PriorityQueue<Word>(k + 1, WORST_FIRST);
+        WordCursor cursor = counts.cursor();
+        while (cursor.next()) {
+            if (heap.size() < k) {
+                heap.add(new Word(cursor.word(), cursor.count()));
+            } else if (k > 0 && cursor.count() >= heap.peek().count) {
+                Word candidate = new Word(cursor.word(), cursor.count());
+                if (WORST_FIRST.compare(candidate, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(candidate);
+                }
+            }
+        }
+        return new TopWords(k, heap.toArray(new Word[heap.size()]));
+    }
+
+    /**
+     * Merge with the top words of other words.
+     * @param other the top words of other words, which are not in this one
+     * @return the top words of both
+     */
+    public TopWords merge(TopWords other) {
+        Word[] all = Arrays.copyOf(words, words.length + other.words.length);
+        System.arraycopy(other.words, 0, all, words.length, other.words.length);
+        return new TopWords(Math.max(k, other.k), all);
+    }
+
+    /**
+     * Get the number of words, which is less than K if there are not enough words.
+     * @return the number of words
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Get a word.
+     * @param rank the rank of the word, from 0 for the most frequent
+     * @return the word
+     */
+    public String getWord(int rank) {
+        return words[rank].word;
+    }
+
+    /**
+     * Get the number of occurences of a word.
+     * @param rank the rank of the word, from 0 for the most frequent
+     * @return the number of occurences
+     */
+    public int getCount(int rank) {
+        return words[rank].count;
+    }
+
+    public String toString() {
+        return words.length + " most frequent words" + (words.length > 0 ? ", from " + words[0].count
+            + " to " + words[words.length - 1].count + " occurences" : "");
+    }
+
+}
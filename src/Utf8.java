@@ -0,0 +1,162 @@
+package src;
+
+/**
+ * Utf8.java
+ *
+ * Helpers to work on words encoded in UTF-8 as if they were Strings, without decoding them.
+ * The bytes must be valid UTF-8, as produced by {@link String#getBytes(java.nio.charset.Charset)}.
+ */
+public class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Compute the hash code of the String encoded by some bytes.
+     * @param bytes the buffer containing the UTF-8 encoded String
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @return the same value as {@link String#hashCode()} of the decoded String
+     */
+    public static int hashCode(byte[] bytes, int offset, int length) {
+        int h = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i];
+            if (b >= 0) {
+                // fast path for ASCII
+                h = 31 * h + b;
+                i++;
+                continue;
+            }
+            int codePoint = decode(bytes, i);
+            i += sequenceLength(b);
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                h = 31 * h + Character.highSurrogate(codePoint);
+                h = 31 * h + Character.lowSurrogate(codePoint);
+            } else {
+                h = 31 * h + codePoint;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Compare the String encoded by some bytes to a String.
+     * @param bytes the buffer containing the UTF-8 encoded String
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @param s the String to compare to
+     * @return true if the decoded String equals s
+     */
+    public static boolean equals(byte[] bytes, int offset, int length, String s) {
+        int n = s.length();
+        if (n > length) {
+            // a char is encoded by at least one byte
+            return false;
+        }
+        int end = offset + length;
+        int i = offset;
+        int j = 0;
+        while (i < end) {
+            if (j >= n) {
+                return false;
+            }
+            int b = bytes[i];
+            if (b >= 0) {
+                if (s.charAt(j++) != b) {
+                    return false;
+                }
+                i++;
+                continue;
+            }
+            int codePoint = decode(bytes, i);
+            i += sequenceLength(b);
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (j + 1 >= n
+                    || s.charAt(j++) != Character.highSurrogate(codePoint)
+                    || s.charAt(j++) != Character.lowSurrogate(codePoint)) {
+                    return false;
+                }
+            } else if (s.charAt(j++) != codePoint) {
+                return false;
+            }
+        }
+        return j == n;
+    }
+
+    /**
+     * Get the maximum number of bytes needed to encode a String.
+     * @param s the String
+     * @return the maximum length of its UTF-8 encoding
+     */
+    public static int maxLength(String s) {
+        return 3 * s.length();
+    }
+
+    /**
+     * Encode a String in UTF-8, like {@link String#getBytes(java.nio.charset.Charset)} but in an existing buffer.
+     * @param s the String to encode
+     * @param dst the buffer, of at least {@link #maxLength(String)} bytes
+     * @return the number of bytes written
+     */
+    public static int encode(String s, byte[] dst) {
+        int n = s.length();
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[j++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[j++] = (byte) (0xC0 | (c >> 6));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    dst[j++] = (byte) (0xF0 | (codePoint >> 18));
+                    dst[j++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    dst[j++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    dst[j++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // malformed, replaced like the encoder of the JDK
+                    dst[j++] = '?';
+                }
+            } else {
+                dst[j++] = (byte) (0xE0 | (c >> 12));
+                dst[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Get the number of bytes of a UTF-8 sequence from its first byte.
+     */
+    private static int sequenceLength(int firstByte) {
+        if ((firstByte & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((firstByte & 0xF0) == 0xE0) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    /**
+     * Decode the code point of a multi-byte UTF-8 sequence.
+     */
+    private static int decode(byte[] bytes, int i) {
+        int b = bytes[i];
+        if ((b & 0xE0) == 0xC0) {
+            return ((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F);
+        } else if ((b & 0xF0) == 0xE0) {
+            return ((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F);
+        } else {
+            return ((b & 0x07) << 18) | ((bytes[i + 1] & 0x3F) << 12)
+                | ((bytes[i + 2] & 0x3F) << 6) | (bytes[i + 3] & 0x3F);
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package src;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.List;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 public class Utils {
@@ -25,6 +26,33 @@ public class Utils {
         prettyPrintTable(readComputersFromFile("computers.txt", 3));
     }
 
+    /**
+     * Run some tasks, each on its own thread, and wait for all of them.
+     * @param nbTasks the number of tasks
+     * @param task the task, given its index
+     */
+    public static void runInParallel(int nbTasks, IntConsumer task) {
+        Thread[] threads = new Thread[nbTasks];
+        for (int i = 0; i < nbTasks; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> task.accept(index));
+            threads[i].setUncaughtExceptionHandler((t, e) -> {
+                e.printStackTrace();
+                System.exit(1);
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted while waiting for a parallel task");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+
     // Model of a config file
     // list of computers
     public static String[] readComputersFromFile(String filename, int nbComputers) {
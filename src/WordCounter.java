@@ -0,0 +1,295 @@
+package src;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WordCounter.java
+ *
+ * A hash table from words to their number of occurences, with open addressing (linear probing).
+ *
+ * The words, their hashes and their counts are stored in three parallel arrays,
+ * so there is no boxed Integer nor entry object per word,
+ * and incrementing the count of a word needs only one probe sequence.
+ *
+ * The words can also be given as lower-cased UTF-8 bytes (as produced by the tokenizer of the slaves) :
+ * they are hashed and compared to the keys without being decoded, and a String is only created
+ * the first time a word is seen.
+ */
+public class WordCounter implements WordCounts, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private transient String[] keys;
+    private transient int[] hashes;
+    private transient int[] counts;
+    private transient int size;
+    private transient int threshold;
+
+    /**
+     * Constructor.
+     */
+    public WordCounter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     * @param expectedSize the number of words expected, to avoid resizing the table
+     */
+    public WordCounter(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Add one occurence of a word.
+     * @param word the word
+     */
+    public void increment(String word) {
+        add(word, 1);
+    }
+
+    /**
+     * Add some occurences of a word.
+     * @param word the word
+     * @param count the number of occurences to add
+     */
+    @Override
+    public void add(String word, int count) {
+        int hash = word.hashCode();
+        int mask = keys.length - 1;
+        int i = spread(hash) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(word)) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        insert(i, word, hash, count);
+    }
+
+    /**
+     * Add one occurence of a word given by its bytes.
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param length the length of the word in the buffer
+     */
+    @Override
+    public void increment(byte[] word, int length) {
+        add(word, length, 1);
+    }
+
+    /**
+     * Add some occurences of a word given by its bytes.
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param length the length of the word in the buffer
+     * @param count the number of occurences to add
+     */
+    @Override
+    public void add(byte[] word, int length, int count) {
+        int hash = Utf8.hashCode(word, 0, length);
+        int mask = keys.length - 1;
+        int i = spread(hash) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && Utf8.equals(word, 0, length, key)) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        insert(i, new String(word, 0, length, StandardCharsets.UTF_8), hash, count);
+    }
+
+    @Override
+    public void add(WordCursor cursor) {
+        add(cursor.word(), cursor.count());
+    }
+
+    /**
+     * Get the number of occurences of a word.
+     * @param word the word
+     * @return the number of occurences, 0 if the word was never counted
+     */
+    public int get(String word) {
+        int hash = word.hashCode();
+        int mask = keys.length - 1;
+        int i = spread(hash) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(word)) {
+                return counts[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of distinct words.
+     * @return the number of words
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a cursor to iterate over the words and their counts, in no particular order.
+     * The counter must not be modified during the iteration.
+     * @return a new cursor, placed before the first word
+     */
+    @Override
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A cursor over the words of the counter, which doesn't create any object per word.
+     */
+    public class Cursor implements WordCursor {
+
+        private int index = -1;
+        private byte[] bytes = new byte[64];
+        private int length = -1;
+
+        @Override
+        public boolean next() {
+            length = -1;
+            while (++index < keys.length) {
+                if (keys[index] != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String word() {
+            return keys[index];
+        }
+
+        @Override
+        public byte[] wordBytes() {
+            encode();
+            return bytes;
+        }
+
+        @Override
+        public int wordLength() {
+            encode();
+            return length;
+        }
+
+        @Override
+        public int hash() {
+            return hashes[index];
+        }
+
+        @Override
+        public int count() {
+            return counts[index];
+        }
+
+        private void encode() {
+            if (length < 0) {
+                String word = keys[index];
+                if (bytes.length < Utf8.maxLength(word)) {
+                    bytes = new byte[Math.max(Utf8.maxLength(word), 2 * bytes.length)];
+                }
+                length = Utf8.encode(word, bytes);
+            }
+        }
+    }
+
+    ///////////////////////////// TABLE MANAGEMENT /////////////////////////////
+
+    private void insert(int i, String word, int hash, int count) {
+        keys[i] = word;
+        hashes[i] = hash;
+        counts[i] = count;
+        if (++size > threshold) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        allocate(2 * oldKeys.length);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = spread(oldHashes[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+                counts[i] = oldCounts[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Compute the size of the table (a power of two) to hold a number of words.
+     */
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Mix the high bits of the hash into the low ones, which are used to index the table.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    ///////////////////////////// SERIALIZATION /////////////////////////////
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            out.writeInt(cursor.wordLength());
+            out.write(cursor.wordBytes(), 0, cursor.wordLength());
+            out.writeInt(cursor.count());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        allocate(tableSizeFor(n));
+        byte[] word = new byte[64];
+        for (int k = 0; k < n; k++) {
+            int length = in.readInt();
+            if (length > word.length) {
+                word = new byte[Math.max(length, 2 * word.length)];
+            }
+            in.readFully(word, 0, length);
+            add(word, length, in.readInt());
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package src;
+
+import java.io.Serializable;
+
+/**
+ * WordCounts.java
+ *
+ * The words counted by a slave with their number of occurences.
+ *
+ * The words are stored either in the heap ({@link WordCounter})
+ * or outside of it ({@link OffHeapWordCounter}), depending on {@link Config#OFF_HEAP}.
+ * Both can be serialized to be sent to another slave.
+ */
+public interface WordCounts extends Serializable {
+
+    /**
+     * Create an empty table of the kind chosen by the configuration.
+     * @return a new table
+     */
+    static WordCounts create() {
+        if (Config.OFF_HEAP) {
+            return new OffHeapWordCounter();
+        } else {
+            return new WordCounter();
+        }
+    }
+
+    /**
+     * Create an empty table of the kind chosen by the configuration.
+     * @param expectedSize the number of words expected, to avoid resizing the table
+     * @return a new table
+     */
+    static WordCounts create(int expectedSize) {
+        if (Config.OFF_HEAP) {
+            return new OffHeapWordCounter(expectedSize);
+        } else {
+            return new WordCounter(expectedSize);
+        }
+    }
+
+    /**
+     * Add one occurence of a word given by its bytes.
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param length the length of the word in the buffer
+     */
+    void increment(byte[] word, int length);
+
+    /**
+     * Add some occurences of a word given by its bytes.
+     * @param word the buffer containing the word encoded in UTF-8
+     * @param length the length of the word in the buffer
+     * @param count the number of occurences to add
+     */
+    void add(byte[] word, int length, int count);
+
+    /**
+     * Add some occurences of a word.
+     * @param word the word
+     * @param count the number of occurences to add
+     */
+    void add(String word, int count);
+
+    /**
+     * Add the occurences of the current word of a cursor, in the cheapest way for this table.
+     * @param cursor the cursor placed on a word
+     */
+    void add(WordCursor cursor);
+
+    /**
+     * Add all the occurences counted by another table.
+     * @param other the other table
+     */
+    default void addAll(WordCounts other) {
+        WordCursor cursor = other.cursor();
+        while (cursor.next()) {
+            add(cursor);
+        }
+    }
+
+    /**
+     * Get the number of distinct words.
+     * @return the number of words
+     */
+    int size();
+
+    /**
+     * Get a cursor to iterate over the words and their counts, in no particular order.
+     * The table must not be modified during the iteration.
+     * @return a new cursor, placed before the first word
+     */
+    WordCursor cursor();
+
+}
@@ -0,0 +1,42 @@
+package src;
+
+/**
+ * WordCursor.java
+ *
+ * A cursor over the words of a {@link WordCounts}, which doesn't create any object per word
+ * unless the word is asked as a String.
+ */
+public interface WordCursor {
+
+    /**
+     * Move to the next word.
+     * @return true if there is a next word, false if the iteration is finished
+     */
+    boolean next();
+
+    /**
+     * @return the current word
+     */
+    String word();
+
+    /**
+     * @return a buffer containing the current word encoded in UTF-8, only valid until the next move
+     */
+    byte[] wordBytes();
+
+    /**
+     * @return the length of the current word in the buffer of {@link #wordBytes()}
+     */
+    int wordLength();
+
+    /**
+     * @return the hash code of the current word, equal to its {@link String#hashCode()}
+     */
+    int hash();
+
+    /**
+     * @return the number of occurences of the current word
+     */
+    int count();
+
+}
@@ -3,11 +3,21 @@ package src.master;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
 
 import src.Client;
 import src.CommunicationException;
-import src.Range;
+import src.Config;
+import src.Histogram;
+import src.SplitPoints;
+import src.Statistics;
 import src.SynchronizationMessage;
+import src.TopWords;
 import src.Utils;
 
 public class Master {
@@ -19,11 +29,19 @@ public class Master {
 
     private final Client[] clients ;
     private final long[] chronos = new long[7];
+    private final Statistics statistics = new Statistics();
+    // the entries produced by the map for each partition of the first MapReduce
+    private final long[] partitionEntries;
+    // the slaves not lost during the map, with the fault tolerance
+    private final boolean[] alive;
 
     public Master(String[] hostnames, int nbSlaves) {
         HOSTNAMES = hostnames;
         NB_SLAVES = nbSlaves;
         clients = new Client[NB_SLAVES];
+        partitionEntries = new long[NB_SLAVES];
+        alive = new boolean[NB_SLAVES];
+        Arrays.fill(alive, true);
     }
 
     public static void main(String[] args) {
@@ -67,26 +85,42 @@ public class Master {
 
         //////////////////// COUNTING WORDS WITH MAPREDUCE ////////////////////
 
-        // Send START to all slaves and wait for READY_TO_SHUFFLE
-        completeStep(0, SynchronizationMessage.MASTER_AWAKE, SynchronizationMessage.READY_TO_MAP);
-
-        // Send START to all slaves and wait for READY_TO_SHUFFLE
-        completeStep(1, SynchronizationMessage.START, SynchronizationMessage.READY_TO_SHUFFLE);
+        SynchronizationMessage barrier = SynchronizationMessage.MASTER_AWAKE;
+        if (Config.RESUME) {
+            // Send MASTER_AWAKE to all slaves, then the barrier from which the job is resumed,
+            // and wait for them to be ready to go on from it
+            barrier = collectCheckpoints();
+            completeStep(0, barrier, barrier == SynchronizationMessage.REDUCE_END
+                ? SynchronizationMessage.REDUCE_END : SynchronizationMessage.READY_TO_MAP);
+        } else {
+            // Send MASTER_AWAKE to all slaves and wait for READY_TO_MAP
+            completeStep(0, SynchronizationMessage.MASTER_AWAKE, SynchronizationMessage.READY_TO_MAP);
+        }
 
-        // Send SHUFFLE to all slaves and wait for READY_TO_REDUCE
-        completeStep(2, SynchronizationMessage.SHUFFLE, SynchronizationMessage.READY_TO_REDUCE);
+        if (barrier == SynchronizationMessage.REDUCE_END) {
+            // The words are already counted, the slaves loaded them from their checkpoints
+            System.out.println("Master resumes the job after the " + barrier + " of a previous run.");
+        } else {
+            // Map, shuffle and reduce to count the words
+            completeCount();
+        }
 
-        // Send REDUCE to all slaves and wait for the REDUCE_END
-        completeStep(3, SynchronizationMessage.REDUCE, SynchronizationMessage.REDUCE_END);
+        if (Config.TOP_K > 0) {
+            // Send TOP_K to all slaves and merge their most frequent words, instead of sorting all the words
+            completeTopK("top-words.txt");
+        } else {
+            // Send MAP to all slaves and wait for the READY_TO_COORDINATE
+            completeStep(4, SynchronizationMessage.MAP, SynchronizationMessage.READY_TO_COORDINATE);
 
-        // Send MAP to all slaves and wait for the READY_TO_COORDINATE
-        completeStep(4, SynchronizationMessage.MAP, SynchronizationMessage.READY_TO_COORDINATE);
+            // Send COORDINATE to all slaves and wait for the READY_TO_REDUCE_2
+            completeShuffle2();
 
-        // Send COORDINATE to all slaves and wait for the READY_TO_REDUCE_2
-        completeShuffle2();
+            // Send REDUCE_2 to all slaves and wait for the END
+            completeStep(6, SynchronizationMessage.REDUCE_2, SynchronizationMessage.END);
+        }
 
-        // Send REDUCE_2 to all slaves and wait for the END
-        completeStep(6, SynchronizationMessage.REDUCE_2, SynchronizationMessage.END);
+        // Gather what the slaves measured
+        collectStatistics();
 
         // Print the duration of each step
         printChronos();
@@ -94,50 +128,94 @@ public class Master {
 
     }
 
+    /**
+     * Complete the steps of the first MapReduce, in the way chosen by the configuration.
+     * @throws CommunicationException if an error occurs during the communication
+     */
+    private void completeCount() throws CommunicationException {
+        if (Config.DYNAMIC_SPLITS) {
+            // Send START to all slaves, hand out the splits on demand and wait for READY_TO_SHUFFLE
+            completeScheduledMap();
+        } else {
+            // Send START to all slaves and wait for READY_TO_SHUFFLE
+            completeStep(1, SynchronizationMessage.START, SynchronizationMessage.READY_TO_SHUFFLE);
+        }
+
+        // Report the partitions before shuffling them
+        collectPartitionEntries();
+
+        if (Config.FAULT_TOLERANT) {
+            // Send SHUFFLE and the owners of the partitions to the slaves still alive and wait for READY_TO_REDUCE
+            completeStep(2, SynchronizationMessage.SHUFFLE, computeOwners(), SynchronizationMessage.READY_TO_REDUCE);
+
+            // Send REDUCE to the slaves still alive and wait for the REDUCE_END
+            completeStep(3, SynchronizationMessage.REDUCE, SynchronizationMessage.REDUCE_END);
+        } else if (Config.PIPELINED_REDUCE) {
+            // Send SHUFFLE to all slaves, which reduce while shuffling, and wait for the REDUCE_END
+            completeStep(2, SynchronizationMessage.SHUFFLE, SynchronizationMessage.REDUCE_END);
+        } else {
+            // Send SHUFFLE to all slaves and wait for READY_TO_REDUCE
+            completeStep(2, SynchronizationMessage.SHUFFLE, SynchronizationMessage.READY_TO_REDUCE);
+
+            // Send REDUCE to all slaves and wait for the REDUCE_END
+            completeStep(3, SynchronizationMessage.REDUCE, SynchronizationMessage.REDUCE_END);
+        }
+    }
+
     private void completeShuffle2() throws CommunicationException {
 
-        MasterCollectingRangesThread[] threads = new MasterCollectingRangesThread[NB_SLAVES];
+        MasterCollectingHistogramsThread[] threads = new MasterCollectingHistogramsThread[NB_SLAVES];
 
         long start = System.currentTimeMillis();
 
-        // send COORDINATE to all slaves and wait for the ranges
+        // send COORDINATE to all slaves and wait for the histograms
 
         for (int i = 0; i < NB_SLAVES; i++) {
+            if (!alive[i]) {
+                continue;
+            }
             clients[i].sendObject(SynchronizationMessage.COORDINATE);
-            threads[i] = new MasterCollectingRangesThread(clients[i]);
+            threads[i] = new MasterCollectingHistogramsThread(clients[i]);
             threads[i].start();
         }
         System.out.println("Master sent "+SynchronizationMessage.COORDINATE+
-            " to all slaves and waits for them to send the ranges !");
+            " to all slaves and waits for them to send the histograms !");
 
-        Range[] ranges = new Range[NB_SLAVES];
+        Histogram histogram = new Histogram();
         try {
             for (int i = 0; i < NB_SLAVES; i++) {
-                threads[i].join();
-                ranges[i] = threads[i].getRange();
+                if (alive[i]) {
+                    threads[i].join();
+                    histogram.addAll(threads[i].getHistogram());
+                }
             }
         } catch (InterruptedException e) {
             System.err.println("Master interrupted while waiting for slaves to be ready !");
             e.printStackTrace();
             System.exit(1);
         }
-        System.out.println("Master received the ranges from all slaves : ");
-        Utils.prettyPrintTable(ranges);
+        System.out.println("Master received the histograms from all slaves : " + histogram);
 
-        // merge the ranges and send the global range to all slaves
+        // compute the split points balancing the words and send them to all slaves
 
-        Range globalRange = Range.mergeRanges(ranges);
-        System.out.println("Master merged the ranges into a global range : " + globalRange);
+        SplitPoints splitPoints = histogram.computeSplitPoints(nbAlive());
+        System.out.println("Master computed the split points : " + splitPoints);
 
         MasterWaitingThread[] waitingThreads = new MasterWaitingThread[NB_SLAVES];
         for (int i = 0; i < NB_SLAVES; i++) {
-            clients[i].sendObject(globalRange);
+            if (!alive[i]) {
+                continue;
+            }
+            clients[i].sendObject(splitPoints);
             waitingThreads[i] = new MasterWaitingThread(clients[i], SynchronizationMessage.READY_TO_REDUCE_2);
             waitingThreads[i].start();
         }
-        System.out.println("Master sent the global range to all slaves and waits for them to be ready !");
+        System.out.println("Master sent the split points to all slaves and waits for them to be ready !");
         try {
             for (MasterWaitingThread t : waitingThreads) {
+                if (t == null) {
+                    continue;
+                }
                 t.join();
                 if (!t.isReady()) {
                     System.err.println("A slave is not ready !");
@@ -157,6 +235,179 @@ public class Master {
 
     }
 
+    /**
+     * Send START to all slaves and give them the splits to map when they ask for them,
+     * until they are all ready to shuffle. The duration is stored as the one of the first map.
+     * With the fault tolerance, the slaves lost meanwhile are left out of the next steps.
+     * @throws CommunicationException if an error occurs during the communication
+     */
+    private void completeScheduledMap() throws CommunicationException {
+
+        SplitScheduler scheduler = new SplitScheduler(NB_SLAVES);
+        MasterSchedulingThread[] threads = new MasterSchedulingThread[NB_SLAVES];
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NB_SLAVES; i++) {
+            clients[i].sendObject(SynchronizationMessage.START);
+            threads[i] = new MasterSchedulingThread(clients[i], i, scheduler);
+            threads[i].start();
+        }
+        System.out.println("Master sent "+SynchronizationMessage.START+
+            " to all slaves and hands out the splits until they are ready !");
+        try {
+            for (int i = 0; i < NB_SLAVES; i++) {
+                threads[i].join();
+                if (threads[i].isLost()) {
+                    alive[i] = false;
+                } else if (!threads[i].isReady()) {
+                    System.err.println("A slave is not ready !");
+                    System.exit(1);
+                }
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Master interrupted while waiting for slaves to be ready !");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        long end = System.currentTimeMillis();
+
+        chronos[1] = end - start;
+
+        System.out.println("Master received "+SynchronizationMessage.READY_TO_SHUFFLE+" from all slaves : " + scheduler);
+        if (nbAlive() == 0) {
+            System.err.println("All the slaves are lost !");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Send MASTER_AWAKE to all slaves and receive the last barrier saved in the checkpoint of each one.
+     * @return the barrier from which the job can be resumed : the last one completed by all the slaves
+     * @throws CommunicationException if a slave sends something else
+     */
+    private SynchronizationMessage collectCheckpoints() throws CommunicationException {
+        for (int i = 0; i < NB_SLAVES; i++) {
+            clients[i].sendObject(SynchronizationMessage.MASTER_AWAKE);
+        }
+        SynchronizationMessage barrier = null;
+        for (int i = 0; i < NB_SLAVES; i++) {
+            Object message = clients[i].receiveObject();
+            if (!(message instanceof SynchronizationMessage)) {
+                throw new CommunicationException("Received an unexpected message instead of the checkpoint : " + message);
+            }
+            SynchronizationMessage last = (SynchronizationMessage) message;
+            System.out.println("Slave " + i + " can resume the job from " + last);
+            if (barrier == null || last.compareTo(barrier) < 0) {
+                barrier = last;
+            }
+        }
+        return barrier;
+    }
+
+    /**
+     * Choose the slave receiving each partition at the shuffle : a slave still alive keeps its partition,
+     * the partitions of the slaves lost are given in turn to the slaves still alive.
+     * @return the id of the owner of each partition
+     */
+    private int[] computeOwners() {
+        int[] owners = new int[NB_SLAVES];
+        int next = 0;
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (alive[i]) {
+                owners[i] = i;
+                continue;
+            }
+            while (!alive[next % NB_SLAVES]) {
+                next++;
+            }
+            owners[i] = next++ % NB_SLAVES;
+            System.out.println("Master gives the partition of the lost slave " + i + " to the slave " + owners[i]);
+        }
+        return owners;
+    }
+
+    private int nbAlive() {
+        int nbAlive = 0;
+        for (boolean a : alive) {
+            if (a) {
+                nbAlive++;
+            }
+        }
+        return nbAlive;
+    }
+
+    /**
+     * Send TOP_K to all slaves, merge the most frequent words they send back,
+     * print the first ones and write all of them to a file.
+     * The duration is stored as the one of the second map.
+     * @param filename the file where to write the most frequent words
+     * @throws CommunicationException if an error occurs during the communication
+     */
+    private void completeTopK(String filename) throws CommunicationException {
+
+        MasterCollectingTopWordsThread[] threads = new MasterCollectingTopWordsThread[NB_SLAVES];
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            clients[i].sendObject(SynchronizationMessage.TOP_K);
+            threads[i] = new MasterCollectingTopWordsThread(clients[i]);
+            threads[i].start();
+        }
+        System.out.println("Master sent "+SynchronizationMessage.TOP_K+
+            " to all slaves and waits for them to send their most frequent words !");
+
+        TopWords top = null;
+        try {
+            for (int i = 0; i < NB_SLAVES; i++) {
+                if (!alive[i]) {
+                    continue;
+                }
+                threads[i].join();
+                top = top == null ? threads[i].getTopWords() : top.merge(threads[i].getTopWords());
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Master interrupted while waiting for slaves to be ready !");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        long end = System.currentTimeMillis();
+
+        chronos[4] = end - start;
+
+        System.out.println("Master received the most frequent words from all slaves : " + top);
+        for (int rank = 0; rank < Math.min(top.size(), 50); rank++) {
+            System.out.println(top.getCount(rank) + " : " + top.getWord(rank));
+        }
+
+        BufferedWriter br = null;
+        try {
+            br = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8);
+            for (int rank = 0; rank < top.size(); rank++) {
+                br.write(top.getCount(rank) + " : " + top.getWord(rank));
+                br.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
     /**
      * Send a message to all slaves and wait for a response and store the duration of the step.
      * @param stepIndex the index of the step in the chronos array
@@ -166,17 +417,39 @@ public class Master {
      */
     private void completeStep(int stepIndex, SynchronizationMessage launchMessage, SynchronizationMessage response)
         throws CommunicationException {
+        completeStep(stepIndex, launchMessage, null, response);
+    }
+
+    /**
+     * Send a message and its argument to all slaves still alive, wait for a response and store the duration of the step.
+     * @param stepIndex the index of the step in the chronos array
+     * @param launchMessage the message to send to all slaves
+     * @param argument the object to send after the message, null for none
+     * @param response the message expected from all slaves
+     * @throws CommunicationException if an error occurs during the communication
+     */
+    private void completeStep(int stepIndex, SynchronizationMessage launchMessage, Serializable argument,
+        SynchronizationMessage response) throws CommunicationException {
             
         MasterWaitingThread[] threads = new MasterWaitingThread[NB_SLAVES];
         long start = System.currentTimeMillis();
         for (int i = 0; i < NB_SLAVES; i++) {
+            if (!alive[i]) {
+                continue;
+            }
             clients[i].sendObject(launchMessage);
+            if (argument != null) {
+                clients[i].sendObject(argument);
+            }
             threads[i] = new MasterWaitingThread(clients[i], response);
             threads[i].start();
         }
         System.out.println("Master sent "+launchMessage+" to all slaves and waits for them to be ready !");
         try {
             for (MasterWaitingThread t : threads) {
+                if (t == null) {
+                    continue;
+                }
                 t.join();
                 if (!t.isReady()) {
                     System.err.println("A slave is not ready !");
@@ -193,16 +466,106 @@ public class Master {
         System.out.println("Master received "+response+" from all slaves !");
     }
 
+    /**
+     * Receive the statistics sent by each slave after END and sum them.
+     * @throws CommunicationException if a slave sends something else
+     */
+    private void collectStatistics() throws CommunicationException {
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            Object message = clients[i].receiveObject();
+            if (message instanceof Statistics) {
+                statistics.addAll((Statistics) message);
+            } else {
+                throw new CommunicationException("Received an unexpected message instead of the statistics : " + message);
+            }
+        }
+    }
+
+    /**
+     * Receive the entries produced for each partition sent by each slave after READY_TO_SHUFFLE and sum them,
+     * then print them with a warning if the partitions are imbalanced, while the partitioner can still be changed.
+     * @throws CommunicationException if a slave sends something else
+     */
+    private void collectPartitionEntries() throws CommunicationException {
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            Object message = clients[i].receiveObject();
+            if (!(message instanceof long[]) || ((long[]) message).length != NB_SLAVES) {
+                throw new CommunicationException("Received an unexpected message instead of the entries of the partitions : "
+                    + message);
+            }
+            long[] entries = (long[]) message;
+            for (int j = 0; j < NB_SLAVES; j++) {
+                partitionEntries[j] += entries[j];
+            }
+        }
+        for (int i = 0; i < NB_SLAVES; i++) {
+            System.out.println("Partition " + i + " : " + partitionEntries[i] + " entries");
+        }
+        if (partitionImbalance() > Config.PARTITION_IMBALANCE) {
+            System.err.println(String.format("Warning : the biggest partition of the first MapReduce is %.2f times "
+                + "the average one, try another partitioner or seed (mr.partitioner, mr.partitioner.seed)",
+                partitionImbalance()));
+        }
+    }
+
+    /**
+     * Compute the imbalance of the partitions of the first MapReduce.
+     * @return the ratio between the number of entries of the biggest partition and the average one, 1 if empty
+     */
+    private double partitionImbalance() {
+        long max = 0;
+        long total = 0;
+        for (int i = 0; i < NB_SLAVES; i++) {
+            long entries = partitionEntries[i];
+            max = Math.max(max, entries);
+            total += entries;
+        }
+        return total == 0 ? 1 : (double) max * NB_SLAVES / total;
+    }
+
     private void printChronos() {
         System.out.println("Load the splits : " + chronos[0] + "ms");
         System.out.println("/// MAPREDUCE TO COUNT ///");
         System.out.println("Map : " + chronos[1] + "ms");
         System.out.println("Shuffle : " + chronos[2] + "ms");
         System.out.println("Reduce : " + chronos[3] + "ms");
-        System.out.println("/// MAPREDUCE TO SORT ///");
-        System.out.println("Map : " + chronos[4] + "ms");
-        System.out.println("Shuffle : " + chronos[5] + "ms");
-        System.out.println("Reduce : " + chronos[6] + "ms");
+        if (Config.TOP_K > 0) {
+            System.out.println("/// TOP " + Config.TOP_K + " ///");
+            System.out.println("Top words : " + chronos[4] + "ms");
+        } else {
+            System.out.println("/// MAPREDUCE TO SORT ///");
+            System.out.println("Map : " + chronos[4] + "ms");
+            System.out.println("Shuffle : " + chronos[5] + "ms");
+            System.out.println("Reduce : " + chronos[6] + "ms");
+        }
+        System.out.println("/// SHUFFLES ///");
+        long rawBytes = statistics.get(Statistics.SHUFFLE_RAW_BYTES);
+        long sentBytes = statistics.get(Statistics.SHUFFLE_SENT_BYTES);
+        System.out.println("Raw bytes : " + rawBytes);
+        System.out.println("Sent bytes : " + sentBytes
+            + (rawBytes > 0 ? String.format(" (%.1f%%)", 100.0 * sentBytes / rawBytes) : "")
+            + ", " + statistics.get(Statistics.SHUFFLE_COMPRESSED_FRAMES) + " frames compressed");
+        System.out.println("Codec time : " + statistics.get(Statistics.SHUFFLE_CODEC_TIME) / 1000000 + "ms");
+        System.out.println("/// PARTITIONS ///");
+        for (int i = 0; i < NB_SLAVES; i++) {
+            System.out.println("Slave " + i + " : " + partitionEntries[i] + " entries, "
+                + statistics.get(Statistics.partitionBytes(i)) + " bytes received");
+        }
+        System.out.println(String.format("Imbalance : %.2f", partitionImbalance()));
+        System.out.println("/// SPILLS ///");
+        System.out.println("Spilled runs : " + statistics.get(Statistics.SPILL_RUNS)
+            + ", " + statistics.get(Statistics.SPILL_BYTES) + " bytes");
+        System.out.println("Spill time : " + statistics.get(Statistics.SPILL_TIME) / 1000000 + "ms");
+        System.out.println("/// FILTERS ///");
+        System.out.println("Words dropped : " + statistics.get(Statistics.FILTER_MIN_COUNT) + " below the minimum, "
+            + statistics.get(Statistics.FILTER_MAX_COUNT) + " above the maximum, "
+            + statistics.get(Statistics.FILTER_STOP_WORDS) + " stop words");
     }
 
     private void printChronos(String filename) {
@@ -225,6 +588,20 @@ public class Master {
         sb.append(";").append(total2);
         // total of the two mapreduce
         sb.append(";").append(total1 + total2);
+        // bytes of the shuffles and time to compress them
+        sb.append(";").append(statistics.get(Statistics.SHUFFLE_RAW_BYTES));
+        sb.append(";").append(statistics.get(Statistics.SHUFFLE_SENT_BYTES));
+        sb.append(";").append(statistics.get(Statistics.SHUFFLE_CODEC_TIME) / 1000000);
+        // runs spilled by the maps
+        sb.append(";").append(statistics.get(Statistics.SPILL_RUNS));
+        sb.append(";").append(statistics.get(Statistics.SPILL_BYTES));
+        sb.append(";").append(statistics.get(Statistics.SPILL_TIME) / 1000000);
+        // imbalance of the partitions
+        sb.append(";").append(String.format(Locale.ROOT, "%.2f", partitionImbalance()));
+        // words dropped by the filters
+        sb.append(";").append(statistics.get(Statistics.FILTER_MIN_COUNT));
+        sb.append(";").append(statistics.get(Statistics.FILTER_MAX_COUNT));
+        sb.append(";").append(statistics.get(Statistics.FILTER_STOP_WORDS));
         BufferedWriter br = null;
         try {
             br = new BufferedWriter(new FileWriter(filename));
@@ -0,0 +1,47 @@
+package src.master;
+
+import src.Histogram ;
+
+import src.Client;
+import src.CommunicationException;
+
+public class MasterCollectingHistogramsThread extends Thread {
+    
+    private final Client client;
+    private Histogram histogram ;
+
+    /**
+     * Constructor.
+     * @param Client the client which is connected to the slave
+     */
+    public MasterCollectingHistogramsThread(Client client) {
+        if (client == null) {
+            throw new IllegalArgumentException("Client cannot be null.");
+        }
+        this.client = client;
+    }
+
+    @Override
+    public void run() {
+
+        // Wait for the slave to send its histogram
+
+        try {
+            Object message = client.receiveObject();
+            System.out.println("Received an Object from " + client.getAddress());
+            if (message instanceof Histogram) {
+                this.histogram = (Histogram) message ;
+            } else {
+                throw new CommunicationException("Received an unexpected message instead of a Histogram : " + message);
+            }
+        } catch (CommunicationException e) {
+            System.err.println("Error in thread " + this.getId() + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+    }
+
+    public Histogram getHistogram() {
+        return this.histogram;
+    }
+}
@@ -1,20 +1,20 @@
 package src.master;
 
-import src.Range ;
+import src.TopWords ;
 
 import src.Client;
 import src.CommunicationException;
 
-public class MasterCollectingRangesThread extends Thread {
+public class MasterCollectingTopWordsThread extends Thread {
     
     private final Client client;
-    private Range range ;
+    private TopWords topWords ;
 
     /**
      * Constructor.
      * @param Client the client which is connected to the slave
      */
-    public MasterCollectingRangesThread(Client client) {
+    public MasterCollectingTopWordsThread(Client client) {
         if (client == null) {
             throw new IllegalArgumentException("Client cannot be null.");
         }
@@ -24,15 +24,15 @@ public class MasterCollectingRangesThread extends Thread {
     @Override
     public void run() {
 
-        // Wait for the slave to send the reduced map
+        // Wait for the slave to send its top words
 
         try {
             Object message = client.receiveObject();
             System.out.println("Received an Object from " + client.getAddress());
-            if (message instanceof Range) {
-                this.range = (Range) message ;
+            if (message instanceof TopWords) {
+                this.topWords = (TopWords) message ;
             } else {
-                throw new CommunicationException("Received an unexpected message instead of a Range : " + message);
+                throw new CommunicationException("Received an unexpected message instead of the top words : " + message);
             }
         } catch (CommunicationException e) {
             System.err.println("Error in thread " + this.getId() + ": " + e.getMessage());
@@ -41,7 +41,7 @@ public class MasterCollectingRangesThread extends Thread {
 
     }
 
-    public Range getRange() {
-        return this.range;
+    public TopWords getTopWords() {
+        return this.topWords;
     }
 }
@@ -0,0 +1,99 @@
+package src.master;
+
+import src.Client;
+import src.CommunicationException;
+import src.Config;
+import src.SplitProgress;
+import src.SynchronizationMessage;
+
+/**
+ * MasterSchedulingThread.java
+ *
+ * A Thread for the master to hand out the splits to a slave during the map, with the dynamic splits :
+ * the slave first sends its local splits, then asks for a split each time it needs one,
+ * until it sends READY_TO_SHUFFLE. With the speculative splits, it also reports the progress of its splits
+ * and asks for their output to be committed. With the fault tolerance, a slave lost during the map
+ * doesn't stop the master : its splits are given again to the other slaves.
+ */
+public class MasterSchedulingThread extends Thread {
+
+    private final Client client;
+    private final int slave;
+    private final SplitScheduler scheduler;
+    private boolean ready = false;
+    private boolean lost = false;
+
+    /**
+     * Constructor.
+     * @param client the client which is connected to the slave
+     * @param slave the id of the slave
+     * @param scheduler the queue of the splits, shared by all the slaves
+     */
+    public MasterSchedulingThread(Client client, int slave, SplitScheduler scheduler) {
+        if (client == null) {
+            throw new IllegalArgumentException("Client cannot be null.");
+        }
+        this.client = client;
+        this.slave = slave;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            Object message = client.receiveObject();
+            if (message instanceof int[]) {
+                scheduler.register(slave, (int[]) message);
+            } else {
+                throw new CommunicationException("Received an unexpected message instead of the local splits : " + message);
+            }
+
+            // Give a split for each request, until the slave has mapped all the splits it got
+
+            while (!ready) {
+                message = client.receiveObject();
+                if (message == SynchronizationMessage.NEXT_SPLIT) {
+                    Integer split = scheduler.next(slave);
+                    client.sendObject(split != null ? split : SynchronizationMessage.NO_MORE_SPLITS);
+                } else if (message instanceof SplitProgress) {
+                    SplitProgress progress = (SplitProgress) message;
+                    client.sendObject(progress.isDone()
+                        ? scheduler.commit(slave, progress.getSplit())
+                        : scheduler.report(slave, progress.getSplit(), progress.getProgress()));
+                } else if (message == SynchronizationMessage.READY_TO_SHUFFLE) {
+                    System.out.println("Received " + message + " from " + client.getAddress());
+                    ready = true;
+                } else {
+                    throw new CommunicationException("Received an unexpected message instead of "
+                        + SynchronizationMessage.NEXT_SPLIT + " : " + message);
+                }
+            }
+        } catch (CommunicationException e) {
+            if (!Config.FAULT_TOLERANT) {
+                System.err.println("Error in thread " + this.getId() + ": " + e.getMessage());
+                System.exit(1);
+            }
+            System.err.println("Warning : the slave " + slave + " is lost during the map : " + e.getMessage());
+            lost = true;
+            if (!scheduler.lost(slave)) {
+                System.err.println("Error : the splits of the lost slave " + slave + " can't be mapped by another slave");
+                System.exit(1);
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Thread " + this.getId() + " interrupted while waiting for the splits of the other slaves");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+    }
+
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    public boolean isLost() {
+        return this.lost;
+    }
+
+}
@@ -2,6 +2,7 @@ package src.master;
 
 import src.Client;
 import src.CommunicationException;
+import src.Config;
 import src.SynchronizationMessage;
 
 /**
@@ -43,6 +44,10 @@ public class MasterWaitingThread extends Thread{
             }
         } catch (CommunicationException e) {
             System.err.println("Error in thread " + this.getId() + ": " + e.getMessage());
+            if (Config.FAULT_TOLERANT) {
+                System.err.println("The slave " + client.getAddress() + " is lost after the map :"
+                    + " the fault tolerance only recovers from the slaves lost during the map");
+            }
             System.exit(1);
         }
 
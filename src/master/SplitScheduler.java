@@ -0,0 +1,340 @@
+package src.master;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import src.Config;
+import src.SynchronizationMessage;
+
+/**
+ * SplitScheduler.java
+ *
+ * The queue of the splits to map, handed out by the master to the slaves on demand.
+ *
+ * Each slave registers its local splits (the ones it would have mapped with a fixed attribution),
+ * which are given to it first. When a slave has mapped all its local splits, it steals a split
+ * from the end of the queue of the slave with the most remaining ones, so the slaves all finish
+ * at about the same time, whatever the speed of the machines and the sizes of the splits.
+ *
+ * <h2>Speculative splits</h2>
+ *
+ * With {@link Config#SPECULATIVE_SPLITS}, the slaves report the progress of their splits and ask
+ * for their output to be committed. When there is no split left to give and most of them are committed,
+ * a slave asking for a split waits for a straggler : a split expected to take much longer than the average
+ * (from the time since it started and its progress) and to end after a new copy would. The slave then gets
+ * a copy of this split. The first copy to be done is committed, the other one is discarded,
+ * and stopped at its next report.
+ *
+ * <h2>Fault tolerance</h2>
+ *
+ * With {@link Config#FAULT_TOLERANT}, the committed splits are also tracked. When a slave is lost during the map,
+ * its remaining local splits stay in its queue to be stolen, and the splits it committed or was mapping
+ * are given again to the other slaves, its output being lost with it. A slave with no split left
+ * then waits for all the splits to be committed and for all the other slaves to ask for a split,
+ * since a slave may be lost until then.
+ */
+public class SplitScheduler {
+
+    // time between two searches for a straggler, in ms
+    private static final long STRAGGLER_CHECK_INTERVAL = 100;
+
+    /**
+     * A copy of a split being mapped by a slave.
+     */
+    private static class Attempt {
+
+        private final int slave;
+        private final boolean speculative;
+        private final long start = System.currentTimeMillis();
+        private double progress = 0;
+
+        Attempt(int slave, boolean speculative) {
+            this.slave = slave;
+            this.speculative = speculative;
+        }
+    }
+
+    // the copies are tracked for the speculative splits and the fault tolerance
+    private static final boolean TRACKED = Config.SPECULATIVE_SPLITS || Config.FAULT_TOLERANT;
+
+    private final ArrayDeque<Integer>[] queues;
+    private final ArrayDeque<Integer> retried = new ArrayDeque<Integer>();
+    private final boolean[] lost;
+    // the slaves which got all their splits
+    private final boolean[] done;
+    private int nbRegistered = 0;
+    private int nbScheduling = 0;
+    private int nbWaiting = 0;
+    private int nbSplits = 0;
+    private int nbLocal = 0;
+    private int nbStolen = 0;
+    private int nbLost = 0;
+    private int nbRetried = 0;
+
+    // the copies of the splits not committed yet, and the slave which committed each split
+    private final Map<Integer, List<Attempt>> running = new HashMap<Integer, List<Attempt>>();
+    private final Map<Integer, Integer> committed = new HashMap<Integer, Integer>();
+    private long committedDuration = 0;
+    private int nbSpeculative = 0;
+    private int nbSpeculativeCommitted = 0;
+
+    /**
+     * Constructor.
+     * @param nbSlaves the number of slaves
+     */
+    @SuppressWarnings("unchecked")
+    public SplitScheduler(int nbSlaves) {
+        queues = new ArrayDeque[nbSlaves];
+        lost = new boolean[nbSlaves];
+        done = new boolean[nbSlaves];
+    }
+
+    /**
+     * Register the local splits of a slave.
+     * @param slave the id of the slave
+     * @param splits the numbers of the local splits of the slave
+     */
+    public synchronized void register(int slave, int[] splits) {
+        queues[slave] = new ArrayDeque<Integer>();
+        for (int split : splits) {
+            queues[slave].add(split);
+        }
+        nbSplits += splits.length;
+        nbRegistered++;
+        nbScheduling++;
+        notifyAll();
+    }
+
+    /**
+     * Give the next split to map to a slave : one of its local splits if there are some left,
+     * else a split of a lost slave, else the last split of the slave with the most remaining splits,
+     * else a copy of a straggler with the speculative splits.
+     * Waits for all the slaves to be registered, so no split is forgotten.
+     * @param slave the id of the slave asking for a split
+     * @return the number of the split, or null if there is no more split to give to this slave
+     * @throws InterruptedException if interrupted while waiting for the other slaves
+     */
+    public synchronized Integer next(int slave) throws InterruptedException {
+        while (nbRegistered < queues.length) {
+            wait();
+        }
+        while (true) {
+            Integer split = poll(slave);
+            if (!TRACKED) {
+                return split;
+            }
+            if (split != null) {
+                running.computeIfAbsent(split, s -> new ArrayList<Attempt>()).add(new Attempt(slave, false));
+                return split;
+            }
+            if (committed.size() >= nbSplits && (!Config.FAULT_TOLERANT || nbWaiting + 1 >= nbScheduling)) {
+                break;
+            }
+
+            // no split left : wait for a straggler, as long as a split may still need a copy,
+            // or with the fault tolerance, for a split of a slave lost
+            boolean copiable = false;
+            if (Config.SPECULATIVE_SPLITS) {
+                long now = System.currentTimeMillis();
+                long longestRemaining = 0;
+                for (Entry<Integer, List<Attempt>> entry : running.entrySet()) {
+                    if (entry.getValue().size() != 1 || committed.containsKey(entry.getKey())) {
+                        continue;
+                    }
+                    copiable = true;
+                    long remaining = remainingTime(entry.getValue().get(0), now);
+                    if (remaining > longestRemaining) {
+                        longestRemaining = remaining;
+                        split = entry.getKey();
+                    }
+                }
+            }
+            if (split != null) {
+                running.get(split).add(new Attempt(slave, true));
+                nbSpeculative++;
+                System.out.println("Master launches a speculative copy of the split " + split + " on the slave " + slave);
+                return split;
+            }
+            if (!copiable && !Config.FAULT_TOLERANT) {
+                break;
+            }
+            nbWaiting++;
+            wait(STRAGGLER_CHECK_INTERVAL);
+            nbWaiting--;
+        }
+        done[slave] = true;
+        nbScheduling--;
+        notifyAll();
+        return null;
+    }
+
+    private Integer poll(int slave) {
+        Integer split = queues[slave].pollFirst();
+        if (split != null) {
+            nbLocal++;
+            return split;
+        }
+        split = retried.pollFirst();
+        if (split != null) {
+            return split;
+        }
+        ArrayDeque<Integer> victim = null;
+        for (ArrayDeque<Integer> queue : queues) {
+            if (victim == null || queue.size() > victim.size()) {
+                victim = queue;
+            }
+        }
+        split = victim.pollLast();
+        if (split != null) {
+            nbStolen++;
+        }
+        return split;
+    }
+
+    /**
+     * Give again the splits of a slave lost during the map : the splits it committed, whose output
+     * is lost with it, and the splits it was mapping which have no other copy.
+     * @param slave the id of the slave lost
+     * @return true if a slave still asks for splits to map them, false if nobody can map them
+     */
+    public synchronized boolean lost(int slave) {
+        if (lost[slave]) {
+            return nbScheduling > 0;
+        }
+        lost[slave] = true;
+        nbLost++;
+        if (queues[slave] == null) {
+            // never registered : its splits are unknown
+            return false;
+        }
+        List<Integer> splits = new ArrayList<Integer>();
+        Iterator<Entry<Integer, Integer>> it = committed.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Integer, Integer> entry = it.next();
+            if (entry.getValue() == slave) {
+                it.remove();
+                splits.add(entry.getKey());
+            }
+        }
+        for (Entry<Integer, List<Attempt>> entry : running.entrySet()) {
+            List<Attempt> attempts = entry.getValue();
+            if (attempts.removeIf(attempt -> attempt.slave == slave) && attempts.isEmpty()
+                    && !committed.containsKey(entry.getKey())) {
+                splits.add(entry.getKey());
+            }
+        }
+        retried.addAll(splits);
+        nbRetried += splits.size();
+        if (!splits.isEmpty()) {
+            System.out.println("Master gives again the splits " + splits + " of the lost slave " + slave);
+        }
+        // a lost slave still scheduling won't ask for splits anymore
+        if (!done[slave]) {
+            done[slave] = true;
+            nbScheduling--;
+        }
+        notifyAll();
+        return nbScheduling > 0 || (retried.isEmpty() && !hasQueued());
+    }
+
+    private boolean hasQueued() {
+        for (ArrayDeque<Integer> queue : queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the remaining time of a copy of a split if it is a straggler.
+     * @param attempt the copy of the split
+     * @param now the current time in ms
+     * @return the expected remaining time in ms, 0 if it is not a straggler or if it is too early to know
+     */
+    private long remainingTime(Attempt attempt, long now) {
+        if (committed.isEmpty() || committed.size() < Config.SPECULATION_THRESHOLD * nbSplits) {
+            return 0;
+        }
+        double average = (double) committedDuration / committed.size();
+        long elapsed = now - attempt.start;
+        double expected;
+        if (attempt.progress > 0) {
+            expected = elapsed / attempt.progress;
+        } else {
+            // no progress yet : only a straggler once it is already too slow
+            expected = elapsed > Config.SPECULATION_SLOWDOWN * average ? Double.POSITIVE_INFINITY : 0;
+        }
+        // a new copy is expected to take the average time
+        if (expected > Config.SPECULATION_SLOWDOWN * average && expected - elapsed > average) {
+            return (long) Math.min(Long.MAX_VALUE, expected - elapsed);
+        }
+        return 0;
+    }
+
+    /**
+     * Update the progress of a copy of a split.
+     * @param slave the id of the slave mapping the split
+     * @param split the number of the split
+     * @param progress the fraction of the split already read
+     * @return {@link SynchronizationMessage#CONTINUE_SPLIT}, or {@link SynchronizationMessage#DISCARD_SPLIT}
+     * if the split is already committed by another copy
+     */
+    public synchronized SynchronizationMessage report(int slave, int split, double progress) {
+        Attempt attempt = find(slave, split);
+        if (committed.containsKey(split)) {
+            running.get(split).remove(attempt);
+            return SynchronizationMessage.DISCARD_SPLIT;
+        }
+        attempt.progress = progress;
+        return SynchronizationMessage.CONTINUE_SPLIT;
+    }
+
+    /**
+     * Commit a copy of a split whose map is over, if no other copy is already committed.
+     * @param slave the id of the slave which mapped the split
+     * @param split the number of the split
+     * @return {@link SynchronizationMessage#COMMIT_SPLIT} if the output of this copy is kept,
+     * {@link SynchronizationMessage#DISCARD_SPLIT} otherwise
+     */
+    public synchronized SynchronizationMessage commit(int slave, int split) {
+        Attempt attempt = find(slave, split);
+        running.get(split).remove(attempt);
+        if (committed.containsKey(split)) {
+            return SynchronizationMessage.DISCARD_SPLIT;
+        }
+        committed.put(split, slave);
+        committedDuration += System.currentTimeMillis() - attempt.start;
+        if (attempt.speculative) {
+            nbSpeculativeCommitted++;
+            System.out.println("Master commits the speculative copy of the split " + split + " on the slave " + slave);
+        }
+        notifyAll();
+        return SynchronizationMessage.COMMIT_SPLIT;
+    }
+
+    private Attempt find(int slave, int split) {
+        List<Attempt> attempts = running.get(split);
+        if (attempts != null) {
+            for (Attempt attempt : attempts) {
+                if (attempt.slave == slave) {
+                    return attempt;
+                }
+            }
+        }
+        throw new IllegalStateException("The split " + split + " is not mapped by the slave " + slave);
+    }
+
+    public synchronized String toString() {
+        return (nbLocal + nbStolen) + " splits given, " + nbLocal + " local and " + nbStolen + " stolen"
+            + (Config.SPECULATIVE_SPLITS ? ", " + nbSpeculative + " speculative copies of which "
+                + nbSpeculativeCommitted + " committed" : "")
+            + (Config.FAULT_TOLERANT ? ", " + nbLost + " slaves lost and " + nbRetried + " splits given again" : "");
+    }
+
+}
@@ -0,0 +1,17 @@
+package src.slave;
+
+/**
+ * BatchSender.java
+ *
+ * Where a map thread gives its full batches : the thread sending them to another slave,
+ * or the batches of a {@link MapTask} kept until it is committed.
+ */
+public interface BatchSender<T> {
+
+    /**
+     * Give a batch to send. The batch must not be modified afterwards.
+     * @param batch the batch to send
+     */
+    void send(T batch);
+
+}
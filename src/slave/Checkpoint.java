@@ -0,0 +1,191 @@
+package src.slave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Properties;
+
+import src.Config;
+import src.ShardedWordCounts;
+import src.SynchronizationMessage;
+import src.WordCounts;
+import src.WordCursor;
+
+/**
+ * Checkpoint.java
+ *
+ * The result of the first MapReduce of a slave, saved on its local disk in {@link Config#CHECKPOINT_DIRECTORY}
+ * so that the job can be resumed after the reduce : the sort, or the top K, can be run again
+ * with other options without counting the words again.
+ *
+ * <h2>Format</h2>
+ *
+ * The words are saved in <code>reduce-&lt;id&gt;.bin</code> as frames of {@link ShuffleCodec#PHASE_COUNT}
+ * of at most {@link Config#SHUFFLE_BATCH_SIZE} words, each preceded by its length (an int), like the output
+ * of the map in {@link MapOutputStore}. They are saved before the filters, which are applied again when resuming.
+ *
+ * The manifest <code>manifest-&lt;id&gt;.properties</code> is written last, so a checkpoint without manifest
+ * is ignored. It gives the last barrier completed by the slave, the number of words and bytes of the words saved,
+ * and the job they come from, which must be the same to resume : the input, the numbers of slaves and splits,
+ * the partitioner and the partitions reduced by the slave.
+ */
+public class Checkpoint {
+
+    private static final String BARRIER = "barrier";
+    private static final String WORDS = "words";
+    private static final String BYTES = "bytes";
+
+    private final int id;
+    private final File data;
+    private final File manifest;
+    // what must be the same in the manifest to resume
+    private final Properties job = new Properties();
+
+    /**
+     * Constructor.
+     * @param id the id of this slave
+     * @param nbSlaves the number of slaves of the job
+     * @param nbSplits the number of splits of each slave
+     * @param input the prefix of the splits
+     */
+    public Checkpoint(int id, int nbSlaves, int nbSplits, String input) {
+        this.id = id;
+        File directory = new File(Config.CHECKPOINT_DIRECTORY);
+        this.data = new File(directory, "reduce-" + id + ".bin");
+        this.manifest = new File(directory, "manifest-" + id + ".properties");
+        job.setProperty("input", input);
+        job.setProperty("slaves", Integer.toString(nbSlaves));
+        job.setProperty("splits", Integer.toString(nbSplits));
+        job.setProperty("partitioner", Config.PARTITIONER);
+        job.setProperty("partitioner.seed", Integer.toString(Config.PARTITIONER_SEED));
+        job.setProperty("partitions", Integer.toString(id));
+    }
+
+    /**
+     * Get the last barrier completed by this slave in a previous run of the same job.
+     * @return {@link SynchronizationMessage#REDUCE_END} if the result of the reduce is saved,
+     * {@link SynchronizationMessage#MASTER_AWAKE} if there is no checkpoint to resume from
+     */
+    public SynchronizationMessage getLastBarrier() {
+        if (!manifest.isFile()) {
+            return SynchronizationMessage.MASTER_AWAKE;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.err.println("Slave " + id + " can't read its checkpoint " + manifest + " : " + e.getMessage());
+            return SynchronizationMessage.MASTER_AWAKE;
+        }
+        for (String key : job.stringPropertyNames()) {
+            if (!job.getProperty(key).equals(properties.getProperty(key))) {
+                System.out.println("Slave " + id + " ignores its checkpoint of another job : " + key + " was "
+                    + properties.getProperty(key) + " instead of " + job.getProperty(key) + ".");
+                return SynchronizationMessage.MASTER_AWAKE;
+            }
+        }
+        if (!Long.toString(data.length()).equals(properties.getProperty(BYTES))) {
+            System.out.println("Slave " + id + " ignores its checkpoint, " + data + " is incomplete.");
+            return SynchronizationMessage.MASTER_AWAKE;
+        }
+        return SynchronizationMessage.valueOf(properties.getProperty(BARRIER));
+    }
+
+    /**
+     * Save the result of the reduce, then the manifest.
+     * @param reduced the reduced words, before the filters
+     * @param partitions the partitions reduced by this slave, separated by commas
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void save(WordCounts reduced, String partitions) throws IOException {
+        long start = System.currentTimeMillis();
+        File directory = data.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create the directory " + directory);
+        }
+        manifest.delete();
+
+        ShuffleCodec codec = new ShuffleCodec(id);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data), 1 << 16))) {
+            WritableByteChannel channel = Channels.newChannel(out);
+            WordCounts batch = WordCounts.create();
+            WordCursor cursor = reduced.cursor();
+            while (cursor.next()) {
+                batch.add(cursor);
+                if (batch.size() >= Config.SHUFFLE_BATCH_SIZE) {
+                    write(codec.encodeCounts(batch), out, channel);
+                    batch = WordCounts.create();
+                }
+            }
+            if (batch.size() > 0) {
+                write(codec.encodeCounts(batch), out, channel);
+            }
+        }
+
+        Properties properties = new Properties();
+        properties.putAll(job);
+        properties.setProperty("partitions", partitions);
+        properties.setProperty(BARRIER, SynchronizationMessage.REDUCE_END.name());
+        properties.setProperty(WORDS, Integer.toString(reduced.size()));
+        properties.setProperty(BYTES, Long.toString(data.length()));
+        File temporary = new File(directory, manifest.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            properties.store(out, "Checkpoint of the slave " + id);
+        }
+        if (!temporary.renameTo(manifest)) {
+            throw new IOException("Can't write the manifest " + manifest);
+        }
+
+        System.out.println("Slave " + id + " saved " + reduced.size() + " words (" + data.length()
+            + " bytes) in " + (System.currentTimeMillis() - start) + "ms to " + data + ".");
+    }
+
+    private static void write(ByteBuffer frame, DataOutputStream out, WritableByteChannel channel) throws IOException {
+        out.writeInt(frame.remaining());
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /**
+     * Load the saved result of the reduce, in {@link Config#REDUCE_THREADS} shards like the result of the reduce.
+     * @return the reduced words, before the filters
+     * @throws IOException if the checkpoint can't be read
+     */
+    public WordCounts load() throws IOException {
+        long start = System.currentTimeMillis();
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(manifest)) {
+            properties.load(in);
+        }
+        WordCounts result = new ShardedWordCounts(Config.REDUCE_THREADS, Integer.parseInt(properties.getProperty(WORDS)));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(data), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                ShuffleCodec.decodeCounts(ByteBuffer.wrap(frame), result);
+            }
+        }
+        System.out.println("Slave " + id + " loaded " + result.size() + " words in "
+            + (System.currentTimeMillis() - start) + "ms from " + data + ".");
+        return result;
+    }
+
+}
@@ -0,0 +1,67 @@
+package src.slave;
+
+import java.io.PrintStream;
+
+import src.CommunicationException;
+import src.Config;
+import src.Server;
+import src.SynchronizationMessage;
+
+/**
+ * HeartbeatThread.java
+ *
+ * A Thread for a slave node to send a heartbeat to the master every {@link Config#HEARTBEAT_INTERVAL} ms,
+ * on the connection of the master, with the fault tolerance : the master considers a slave silent
+ * for {@link Config#HEARTBEAT_TIMEOUT} ms as lost, even when the slave is busy for a long time.
+ */
+public class HeartbeatThread extends Thread {
+
+    private final Server serverForMaster;
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     * @param serverForMaster the server connected to the master
+     */
+    public HeartbeatThread(Server serverForMaster) {
+        this.serverForMaster = serverForMaster;
+        setDaemon(true);
+    }
+
+    /**
+     * Stop sending heartbeats.
+     */
+    public void shutdown() {
+        stopped = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                Thread.sleep(Config.HEARTBEAT_INTERVAL);
+                serverForMaster.sendObject(SynchronizationMessage.HEARTBEAT);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (CommunicationException e) {
+            if (!stopped) {
+                printErr("can't send a heartbeat to the master : " + e.getMessage());
+            }
+        }
+    }
+
+    private void identifiedPrint(String message, PrintStream stream) {
+        stream.println("[" + this.getId() + "] " + message);
+    }
+
+    /**
+     * Print a message to the standard error.
+     * @param message the message to print
+     */
+    private void printErr(String message) {
+        identifiedPrint(message, System.err);
+    }
+
+}
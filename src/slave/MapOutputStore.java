@@ -0,0 +1,194 @@
+package src.slave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import src.Config;
+import src.WordCounts;
+
+/**
+ * MapOutputStore.java
+ *
+ * The output of a map for the other machines, kept on the local disk instead of the memory :
+ * one file per partition, holding the frames of the batches of the partition, each preceded by its length.
+ *
+ * With the speculative splits, each split has its own store holding its batches until the master commits it,
+ * then the frames are sent, or the store is deleted if the split is discarded. With the fault tolerance,
+ * the slave keeps the files of all its committed splits until the shuffle : since nothing is sent during
+ * the map, the master can still choose which slave receives each partition when the map is over,
+ * and the partition of a slave lost during the map is sent to another slave, from the files of all
+ * the slaves still alive.
+ */
+public class MapOutputStore {
+
+    /**
+     * A consumer of the frames read from a file of the store.
+     */
+    public interface FrameConsumer {
+        /**
+         * @param frame the frame, from its position to its limit
+         * @throws IOException if the frame can't be used
+         */
+        void accept(ByteBuffer frame) throws IOException;
+    }
+
+    private final int id;
+    private final ShuffleCodec.Encoder<WordCounts> encoder;
+    // the files of each partition, the first one being written by this store
+    private final List<File>[] files;
+    private final DataOutputStream[] outputs;
+    private final WritableByteChannel[] channels;
+    private final long[] nbBytes;
+
+    /**
+     * Constructor, creating one file per partition of the other machines.
+     * @param id the id of this slave, whose partition is kept in memory
+     * @param nbMachines the number of machines
+     * @param encoder the encoder of the batches of this slave
+     * @throws IOException if a file can't be created in {@link Config#SPILL_DIRECTORY}
+     */
+    @SuppressWarnings("unchecked")
+    public MapOutputStore(int id, int nbMachines, ShuffleCodec.Encoder<WordCounts> encoder) throws IOException {
+        this.id = id;
+        this.encoder = encoder;
+        this.files = new List[nbMachines];
+        this.outputs = new DataOutputStream[nbMachines];
+        this.channels = new WritableByteChannel[nbMachines];
+        this.nbBytes = new long[nbMachines];
+        File directory = new File(Config.SPILL_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create the directory " + directory);
+        }
+        for (int i = 0; i < nbMachines; i++) {
+            files[i] = new ArrayList<File>();
+            if (i != id) {
+                File file = File.createTempFile("output-" + id + "-" + i + "-", ".bin", directory);
+                file.deleteOnExit();
+                files[i].add(file);
+                outputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+                channels[i] = Channels.newChannel(outputs[i]);
+            }
+        }
+    }
+
+    /**
+     * Get where to give the batches of the map, which can be given by several threads at the same time.
+     * @return the senders writing the batches of each partition to its file, null for this slave
+     */
+    @SuppressWarnings("unchecked")
+    public BatchSender<WordCounts>[] getSenders() {
+        BatchSender<WordCounts>[] senders = new BatchSender[files.length];
+        for (int i = 0; i < files.length; i++) {
+            if (i != id) {
+                int partition = i;
+                senders[i] = batch -> write(partition, encoder.encode(batch));
+            }
+        }
+        return senders;
+    }
+
+    private void write(int partition, ByteBuffer frame) {
+        // the frame is encoded by the thread giving the batch, only the writes are one at a time
+        synchronized (outputs[partition]) {
+            try {
+                outputs[partition].writeInt(frame.remaining());
+                nbBytes[partition] += 4 + frame.remaining();
+                while (frame.hasRemaining()) {
+                    channels[partition].write(frame);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write the output of the map to " + files[partition].get(0), e);
+            }
+        }
+    }
+
+    /**
+     * Close the files, once the map is over.
+     * @throws IOException if a file can't be written
+     */
+    public void close() throws IOException {
+        for (DataOutputStream output : outputs) {
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Keep the files of another store, to read them after the files of this store.
+     *
+     * <strong>The other store must be closed !</strong>
+     * @param other the other store, of the same slave
+     */
+    public void addAll(MapOutputStore other) {
+        for (int i = 0; i < files.length; i++) {
+            files[i].addAll(other.files[i]);
+            other.files[i].clear();
+            nbBytes[i] += other.nbBytes[i];
+        }
+    }
+
+    /**
+     * Read the frames of a partition, then delete its files.
+     * @param partition the id of the machine of the partition
+     * @param consumer the consumer of the frames
+     * @throws IOException if a file can't be read
+     */
+    public void forEachFrame(int partition, FrameConsumer consumer) throws IOException {
+        for (File file : files[partition]) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = input.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] frame = new byte[length];
+                    input.readFully(frame);
+                    consumer.accept(ByteBuffer.wrap(frame));
+                }
+            }
+            file.delete();
+        }
+        files[partition].clear();
+    }
+
+    /**
+     * Close and delete the files, when the output is thrown away.
+     * @throws IOException if a file can't be closed
+     */
+    public void delete() throws IOException {
+        close();
+        for (List<File> partition : files) {
+            for (File file : partition) {
+                file.delete();
+            }
+            partition.clear();
+        }
+    }
+
+    /**
+     * Get the number of bytes kept for a partition.
+     * @param partition the id of the machine of the partition
+     * @return the size of its files
+     */
+    public long getNbBytes(int partition) {
+        return nbBytes[partition];
+    }
+
+}
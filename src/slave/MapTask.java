@@ -0,0 +1,169 @@
+package src.slave;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import src.Config;
+import src.Partitioner;
+import src.ShardedWordCounts;
+import src.Statistics;
+import src.WordCounts;
+
+/**
+ * MapTask.java
+ *
+ * The map of some chunks of splits by {@link Config#MAP_THREADS} map threads in parallel,
+ * the chunks being given one after the other with {@link #map(ByteBuffer)}.
+ *
+ * The full batches of the other machines are sent while mapping, or held on the disk in a {@link MapOutputStore}
+ * until the task is committed when it may be discarded : with the speculative splits, each split is a task
+ * which can also be mapped by another slave, and only the output of the copy committed by the master
+ * must be shuffled.
+ */
+public class MapTask {
+
+    private final BlockingQueue<ByteBuffer> chunks;
+    private final MapThread[] workers;
+    // the batches held for the other machines, null if they are sent while mapping
+    private final MapOutputStore held;
+
+    /**
+     * Constructor, starting the map threads.
+     * @param id the id of this slave
+     * @param partitioner gives the id of the machine responsible for a word
+     * @param senders where to send the batches of the other machines while mapping, null if they are held
+     * @param held where to hold the batches until {@link #commit(BatchSender[], Statistics)},
+     * null if they are sent while mapping
+     * @param memoryBudget the memory for the partition of this slave in bytes, shared by the threads, 0 for no budget
+     * @param statistics the statistics where to count the spills
+     */
+    public MapTask(int id, Partitioner partitioner, BatchSender<WordCounts>[] senders, MapOutputStore held,
+            long memoryBudget, Statistics statistics) {
+        this.chunks = new ArrayBlockingQueue<ByteBuffer>(2 * Config.MAP_THREADS);
+        this.workers = new MapThread[Config.MAP_THREADS];
+        this.held = held;
+
+        BatchSender<WordCounts>[] targets = held != null ? held.getSenders() : senders;
+
+        for (int k = 0; k < workers.length; k++) {
+            workers[k] = new MapThread(id, chunks, partitioner, targets, memoryBudget / workers.length, statistics);
+            workers[k].start();
+        }
+    }
+
+    /**
+     * Give a chunk to map to the threads, waiting if they are all busy.
+     * @param chunk the chunk, which must stay valid until it is mapped
+     */
+    public void map(ByteBuffer chunk) {
+        put(chunk);
+    }
+
+    /**
+     * Wait for the end of the map of all the chunks given,
+     * the threads sending or holding their last batches.
+     */
+    public void end() {
+        for (int k = 0; k < workers.length; k++) {
+            put(MapThread.END);
+        }
+        for (MapThread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted while waiting for a map thread to join");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }
+
+    private void put(ByteBuffer chunk) {
+        try {
+            chunks.put(chunk);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while waiting to give a chunk to map");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Keep the output of the task : send the frames of the held batches, read back from the disk one by one,
+     * and count the entries of each machine.
+     *
+     * <strong>This method should be called after {@link #end()} !</strong>
+     * @param senders where to send the frames of the held batches of each machine, null to keep them
+     * in their store until the shuffle, unused when the batches are sent while mapping
+     * @param statistics the statistics where to count the entries
+     * @throws IOException if the held batches can't be read
+     */
+    public void commit(BatchSender<ByteBuffer>[] senders, Statistics statistics) throws IOException {
+        if (held != null) {
+            held.close();
+            for (int i = 0; senders != null && i < senders.length; i++) {
+                if (senders[i] != null) {
+                    held.forEachFrame(i, senders[i]::send);
+                }
+            }
+        }
+        for (MapThread worker : workers) {
+            long[] nbEntries = worker.getNbEntries();
+            for (int i = 0; i < nbEntries.length; i++) {
+                statistics.add(Statistics.partitionEntries(i), nbEntries[i]);
+            }
+        }
+    }
+
+    /**
+     * Throw away the output of the task, another copy being kept.
+     *
+     * <strong>This method should be called after {@link #end()} !</strong>
+     * @throws IOException if the held batches can't be deleted
+     */
+    public void discard() throws IOException {
+        if (held != null) {
+            held.delete();
+        }
+        getRuns().delete();
+    }
+
+    /**
+     * Get the words of this slave counted by the task, merged into the biggest partition of the threads
+     * shard by shard.
+     *
+     * <strong>This method should be called after {@link #end()} !</strong>
+     * @return the partition of this slave in the shards of the reduce, without the words spilled in runs
+     */
+    public ShardedWordCounts getOwnPartition() {
+        ShardedWordCounts result = null;
+        for (MapThread worker : workers) {
+            if (result == null || worker.getOwnPartition().size() > result.size()) {
+                result = worker.getOwnPartition();
+            }
+        }
+        for (MapThread worker : workers) {
+            if (worker.getOwnPartition() != result) {
+                result.addAll(worker.getOwnPartition());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the runs where the threads spilled the words of this slave.
+     *
+     * <strong>This method should be called after {@link #end()} !</strong>
+     * @return the runs of each shard, empty if the words were never spilled
+     */
+    public ShardedRuns getRuns() {
+        ShardedRuns runs = new ShardedRuns(Config.REDUCE_THREADS);
+        for (MapThread worker : workers) {
+            runs.addAll(worker.getRuns());
+        }
+        return runs;
+    }
+
+}
@@ -0,0 +1,197 @@
+package src.slave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+import src.Config;
+import src.Partitioner;
+import src.ShardedWordCounts;
+import src.Statistics;
+import src.WordCounts;
+
+/**
+ * MapThread.java
+ *
+ * A Thread for a slave node to map some of the chunks of its splits, in parallel with the other
+ * map threads of the slave : the chunks are taken from a queue shared by all the threads.
+ *
+ * Each thread has its own tokenizer and its own tables, so the threads share nothing while counting :
+ * the words of the other machines are counted in one batch per machine, given to the thread which sends it
+ * as soon as it is full, and the words of this slave in a partition merged with the other threads at the end.
+ * This partition is already split in the shards of the reduce ({@link Config#REDUCE_THREADS}),
+ * so that each thread of the reduce only reads its own shard.
+ *
+ * When the partition of this slave exceeds the memory budget of the thread, it is spilled to the disk
+ * as one {@link SortedRun} per shard and the thread starts a new one : the runs are merged by the reduce.
+ */
+public class MapThread extends Thread {
+
+    /**
+     * Put in the queue to stop a map thread.
+     */
+    public static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final int id;
+    private final BlockingQueue<ByteBuffer> chunks;
+    private final Partitioner partitioner;
+    private final BatchSender<WordCounts>[] senders;
+    private final long memoryBudget;
+    private final Statistics statistics;
+
+    private final Tokenizer tokenizer = new Tokenizer();
+    private ShardedWordCounts ownPartition = new ShardedWordCounts(Config.REDUCE_THREADS, 0);
+    private final WordCounts[] batches;
+    // number of entries produced for each machine
+    private final long[] nbEntries;
+
+    // estimated memory of the partition of this slave, and the runs where it was spilled
+    private long ownPartitionBytes = 0;
+    private final ShardedRuns runs = new ShardedRuns(Config.REDUCE_THREADS);
+
+    private int nbChunks = 0;
+
+    /**
+     * Constructor.
+     * @param id the id of this slave
+     * @param chunks the queue of the chunks to map, ended by one {@link #END} per thread
+     * @param partitioner gives the id of the machine responsible for a word
+     * @param senders where to give the batches of the other machines
+     * @param memoryBudget the memory for the partition of this slave in bytes, 0 for no budget
+     * @param statistics the statistics where to count the spills
+     */
+    public MapThread(int id, BlockingQueue<ByteBuffer> chunks, Partitioner partitioner,
+            BatchSender<WordCounts>[] senders, long memoryBudget, Statistics statistics) {
+        this.id = id;
+        this.chunks = chunks;
+        this.partitioner = partitioner;
+        this.senders = senders;
+        this.memoryBudget = memoryBudget;
+        this.statistics = statistics;
+        this.batches = new WordCounts[senders.length];
+        this.nbEntries = new long[senders.length];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = i == id ? ownPartition : WordCounts.create();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Tokenizer.WordSink sink = this::count;
+            ByteBuffer chunk;
+            while ((chunk = chunks.take()) != END) {
+                tokenizer.tokenize(chunk, sink);
+                nbChunks++;
+            }
+
+            // send the last batches
+            for (int i = 0; i < batches.length; i++) {
+                if (i != this.id && batches[i].size() > 0) {
+                    nbEntries[i] += batches[i].size();
+                    senders[i].send(batches[i]);
+                }
+            }
+            // once spilled, the whole partition is in runs to be merged together
+            if (!runs.isEmpty() && ownPartition.size() > 0) {
+                spill();
+            }
+            nbEntries[this.id] += ownPartition.size();
+            printOut("mapped " + nbChunks + " chunks" + (runs.isEmpty() ? "" : ", spilled " + runs.size() + " runs"));
+        } catch (InterruptedException e) {
+            printErr("interrupted while waiting for a chunk");
+            e.printStackTrace();
+            System.exit(1);
+        } catch (Throwable e) {
+            printErr("error : " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void count(byte[] word, int length) {
+        int machineIndex = partitioner.partition(word, 0, length);
+        WordCounts batch = batches[machineIndex];
+        // the size of the partition of this slave is the sum of its shards : only read with a memory budget
+        int size = machineIndex == this.id && memoryBudget > 0 ? batch.size() : 0;
+        batch.increment(word, length);
+        if (machineIndex != this.id) {
+            if (batch.size() >= Config.SHUFFLE_BATCH_SIZE) {
+                nbEntries[machineIndex] += batch.size();
+                senders[machineIndex].send(batch);
+                batches[machineIndex] = WordCounts.create();
+            }
+        } else if (memoryBudget > 0 && batch.size() > size) {
+            ownPartitionBytes += length + SortedRun.ENTRY_OVERHEAD;
+            if (ownPartitionBytes > memoryBudget) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Can't spill the words to " + Config.SPILL_DIRECTORY, e);
+                }
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        nbEntries[this.id] += ownPartition.size();
+        runs.spill(ownPartition, new File(Config.SPILL_DIRECTORY), "map-" + id + "-", statistics);
+        ownPartition = new ShardedWordCounts(Config.REDUCE_THREADS, 0);
+        batches[this.id] = ownPartition;
+        ownPartitionBytes = 0;
+    }
+
+    /**
+     * Get the number of entries produced for each machine, in the batches or the partition of this slave.
+     *
+     * <strong>This method should be called after the thread is finished !</strong>
+     * @return the numbers of entries, indexed by the id of the machines
+     */
+    public long[] getNbEntries() {
+        return nbEntries;
+    }
+
+    /**
+     * Get the runs where this thread spilled the words of this slave.
+     *
+     * <strong>This method should be called after the thread is finished !</strong>
+     * @return the runs, empty if the words were never spilled
+     */
+    public ShardedRuns getRuns() {
+        return runs;
+    }
+
+    /**
+     * Get the words of this slave counted by this thread, but not spilled.
+     *
+     * <strong>This method should be called after the thread is finished !</strong>
+     * @return the partition of this slave, in the shards of the reduce
+     */
+    public ShardedWordCounts getOwnPartition() {
+        return ownPartition;
+    }
+
+    private void identifiedPrint(String message, PrintStream stream) {
+        stream.println("[" + this.getId() + "] " + message);
+    }
+
+    /**
+     * Print a message to the standard output.
+     * @param message the message to print
+     */
+    private void printOut(String message) {
+        identifiedPrint(message, System.out);
+    }
+
+    /**
+     * Print a message to the standard error.
+     * @param message the message to print
+     */
+    private void printErr(String message) {
+        identifiedPrint(message, System.err);
+    }
+
+}
@@ -0,0 +1,125 @@
+package src.slave;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import src.WordCounts;
+
+/**
+ * MergeThread.java
+ *
+ * A Thread for a slave node to reduce the words of the first MapReduce while they are shuffled :
+ * each batch received from another slave is decoded straight into the result as soon as it arrives,
+ * as well as the partition kept by this slave at the end of its map.
+ *
+ * The endpoint only hands the frames over, so it keeps reading the other connections while merging.
+ * At most <code>capacity</code> frames wait to be merged, then the endpoint waits too.
+ */
+public class MergeThread extends Thread {
+
+    private static final Object END = new Object();
+
+    private final WordCounts result;
+    private final BlockingQueue<Object> items;
+
+    private int nbFrames = 0;
+
+    /**
+     * Constructor.
+     * @param result the table where to merge the words
+     * @param capacity the maximum number of frames waiting to be merged
+     */
+    public MergeThread(WordCounts result, int capacity) {
+        this.result = result;
+        this.items = new ArrayBlockingQueue<Object>(capacity + 1);
+    }
+
+    /**
+     * Give a frame received from another slave to merge.
+     * @param frame the frame, decoded by {@link ShuffleCodec#decodeCounts(ByteBuffer, WordCounts)}
+     */
+    public void merge(ByteBuffer frame) {
+        put(frame);
+    }
+
+    /**
+     * Give a partition to merge. It must not be modified afterwards.
+     * @param partition the words to add to the result
+     */
+    public void merge(WordCounts partition) {
+        put(partition);
+    }
+
+    /**
+     * End the merge, once everything given is merged.
+     */
+    public void close() {
+        put(END);
+    }
+
+    private void put(Object o) {
+        try {
+            items.put(o);
+        } catch (InterruptedException e) {
+            printErr("interrupted while waiting to merge");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Object item;
+            while ((item = items.take()) != END) {
+                if (item instanceof ByteBuffer) {
+                    ShuffleCodec.decodeCounts((ByteBuffer) item, result);
+                    nbFrames++;
+                } else {
+                    result.addAll((WordCounts) item);
+                }
+            }
+            printOut("merged " + nbFrames + " batches into " + result.size() + " words");
+        } catch (IOException e) {
+            printErr("error while merging a batch : " + e.getMessage());
+            System.exit(1);
+        } catch (Throwable e) {
+            printErr("error : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Get the result of the merge.
+     *
+     * <strong>This method should be called after the thread is finished !</strong>
+     * @return the table where the words were merged
+     */
+    public WordCounts getResult() {
+        return result;
+    }
+
+    private void identifiedPrint(String message, PrintStream stream) {
+        stream.println("[" + this.getId() + "] " + message);
+    }
+
+    /**
+     * Print a message to the standard output.
+     * @param message the message to print
+     */
+    private void printOut(String message) {
+        identifiedPrint(message, System.out);
+    }
+
+    /**
+     * Print a message to the standard error.
+     * @param message the message to print
+     */
+    private void printErr(String message) {
+        identifiedPrint(message, System.err);
+    }
+
+}
@@ -0,0 +1,135 @@
+package src.slave;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import src.Config;
+
+/**
+ * PeerMesh.java
+ *
+ * The connections of a slave to the {@link ShuffleEndpoint}s of all the other slaves,
+ * opened once when the job starts and used by all the shuffles.
+ *
+ * The frames of several phases can be written at the same time on the connection to a peer :
+ * each frame is written as a whole, and the endpoint dispatches it by the phase of its header.
+ */
+public class PeerMesh {
+
+    private static final long CONNECT_RETRY_DELAY = 100; // ms
+
+    private final int id;
+    private final String[] hosts;
+    private final int[] ports;
+    private final SocketChannel[] channels;
+    private final ByteBuffer[] lengths;
+
+    /**
+     * Constructor.
+     * @param id the id of this slave
+     * @param hosts the hostnames of all the slaves
+     * @param ports the ports of the shuffle endpoints of all the slaves
+     */
+    public PeerMesh(int id, String[] hosts, int[] ports) {
+        this.id = id;
+        this.hosts = hosts;
+        this.ports = ports;
+        this.channels = new SocketChannel[hosts.length];
+        this.lengths = new ByteBuffer[hosts.length];
+    }
+
+    /**
+     * <strong>Blocking</strong> method to connect to all the other slaves.
+     * A connection refused is tried again during {@link Config#CONNECT_TIMEOUT}, in case a peer is not listening yet.
+     * @throws IOException if a peer can't be reached
+     */
+    public void connect() throws IOException {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < channels.length; i++) {
+            if (i != this.id) {
+                channels[i] = open(i);
+                lengths[i] = ByteBuffer.allocate(4);
+            }
+        }
+        System.out.println("Connected to " + (channels.length - 1) + " peers in "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private SocketChannel open(int peer) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(hosts[peer], ports[peer]);
+        long deadline = System.currentTimeMillis() + Config.CONNECT_TIMEOUT;
+        while (true) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, Config.TCP_NO_DELAY);
+                if (Config.SEND_BUFFER_SIZE > 0) {
+                    channel.setOption(StandardSocketOptions.SO_SNDBUF, Config.SEND_BUFFER_SIZE);
+                }
+                channel.connect(address);
+                return channel;
+            } catch (ConnectException e) {
+                channel.close();
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new IOException("Couldn't connect to " + getAddress(peer) + " : " + e.getMessage(), e);
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    throw new IOException("Interrupted while connecting to " + getAddress(peer), ie);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Write a frame, preceded by its length, on the connection to a peer.
+     * @param peer the id of the peer
+     * @param frame the frame, from its position to its limit
+     * @throws IOException if the frame can't be written
+     */
+    public void write(int peer, ByteBuffer frame) throws IOException {
+        SocketChannel channel = channels[peer];
+        synchronized (channel) {
+            ByteBuffer length = lengths[peer];
+            length.clear();
+            length.putInt(frame.remaining()).flip();
+            ByteBuffer[] buffers = { length, frame };
+            while (frame.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * Close all the connections.
+     */
+    public void close() {
+        for (SocketChannel channel : channels) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Couldn't close a connection to a peer.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the address of a peer for debug purpose.
+     * @param peer the id of the peer
+     * @return the address of its endpoint with the port
+     */
+    public String getAddress(int peer) {
+        return hosts[peer] + ":" + ports[peer];
+    }
+
+}
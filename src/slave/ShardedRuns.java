@@ -0,0 +1,120 @@
+package src.slave;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import src.ShardedWordCounts;
+import src.Statistics;
+
+/**
+ * ShardedRuns.java
+ *
+ * The {@link SortedRun}s where the words of this slave are spilled by the map, kept apart for each shard
+ * of the reduce : a {@link ShardedWordCounts} is spilled shard by shard, so the words of a run all belong
+ * to the same shard, and each thread of the reduce merges the runs of its own shard.
+ */
+public class ShardedRuns {
+
+    private final List<List<File>> shards = new ArrayList<List<File>>();
+
+    /**
+     * Constructor.
+     * @param nbShards the number of shards
+     */
+    public ShardedRuns(int nbShards) {
+        for (int i = 0; i < nbShards; i++) {
+            shards.add(new ArrayList<File>());
+        }
+    }
+
+    /**
+     * Write each shard of a table with words to a new run of the shard.
+     * @param table the words to spill, with as many shards
+     * @param directory the directory of the runs, created if needed
+     * @param prefix the prefix of the name of the runs
+     * @param statistics the statistics where to count the runs, their bytes and the time to write them
+     * @throws IOException if a run can't be written
+     */
+    public void spill(ShardedWordCounts table, File directory, String prefix, Statistics statistics)
+            throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            if (table.getShard(i).size() > 0) {
+                shards.get(i).add(SortedRun.spill(table.getShard(i), directory, prefix, statistics));
+            }
+        }
+    }
+
+    /**
+     * Add the runs of others runs, with as many shards.
+     * @param other the other runs
+     */
+    public void addAll(ShardedRuns other) {
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).addAll(other.shards.get(i));
+        }
+    }
+
+    /**
+     * Get the runs of a shard.
+     * @param index the index of the shard
+     * @return the runs of the shard
+     */
+    public List<File> getShard(int index) {
+        return shards.get(index);
+    }
+
+    /**
+     * Get the runs of all the shards, to merge them together.
+     * @return the runs
+     */
+    public List<File> getAll() {
+        List<File> runs = new ArrayList<File>();
+        for (List<File> shard : shards) {
+            runs.addAll(shard);
+        }
+        return runs;
+    }
+
+    /**
+     * Get the number of runs of all the shards.
+     * @return the number of runs
+     */
+    public int size() {
+        int size = 0;
+        for (List<File> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if there are no runs
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Forget the runs, once they are merged or deleted.
+     */
+    public void clear() {
+        for (List<File> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Delete the runs.
+     */
+    public void delete() {
+        for (List<File> shard : shards) {
+            for (File run : shard) {
+                run.delete();
+            }
+        }
+        clear();
+    }
+
+}
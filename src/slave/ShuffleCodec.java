@@ -0,0 +1,568 @@
+package src.slave;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import src.Config;
+import src.FrequencyBuckets;
+import src.WordCounts;
+import src.WordCursor;
+
+/**
+ * ShuffleCodec.java
+ *
+ * The binary format of the data exchanged by the slaves during the shuffles,
+ * instead of the Java serialization of whole HashMaps.
+ *
+ * <h2>Format of a frame</h2>
+ *
+ * A header of {@link #HEADER_SIZE} bytes :
+ * <ul>
+ * <li>int : {@link #MAGIC}</li>
+ * <li>byte : {@link #VERSION}</li>
+ * <li>byte : the phase, {@link #PHASE_COUNT} or {@link #PHASE_SORT}</li>
+ * <li>byte : flags, {@link #FLAG_END_OF_STREAM}, {@link #FLAG_COMPRESSED}, {@link #FLAG_SORTED}
+ * and {@link #FLAG_FRONT_CODED}</li>
+ * <li>byte : reserved</li>
+ * <li>int : the id of the sender</li>
+ * <li>int : the number of entries</li>
+ * <li>int : the length of the payload, in bytes</li>
+ * </ul>
+ * followed by the payload, made of the entries. The integers of the payload are varints
+ * (7 bits per byte, the highest bit set if another byte follows) and the words are UTF-8 bytes
+ * preceded by their length :
+ * <ul>
+ * <li>{@link #PHASE_COUNT} : for each word, the word then its count</li>
+ * <li>{@link #PHASE_SORT} : for each occurence, the occurence, the number of words and the words</li>
+ * </ul>
+ *
+ * The words of an occurence in a frame of {@link #PHASE_SORT} with the flag {@link #FLAG_FRONT_CODED}
+ * are in increasing order of their bytes, and each word is the number of its first bytes shared with the previous
+ * word, then the length of the rest of the word and its bytes.
+ *
+ * The payload of a frame with the flag {@link #FLAG_COMPRESSED} is the length of the original payload (an int)
+ * followed by the original payload compressed by a {@link Deflater} without header (<code>nowrap</code>).
+ *
+ * A slave sends its data to another slave as a stream of frames (batches) of bounded size,
+ * ended by a frame without entries with the flag {@link #FLAG_END_OF_STREAM}.
+ * A frame is at most {@link #MAX_FRAME_SIZE} bytes, so that a corrupt length can't allocate more.
+ * On a connection, each frame is preceded by its length (an int), see {@link ShuffleEndpoint}.
+ */
+public class ShuffleCodec {
+
+    public static final int MAGIC = 0x534C5231; // "SLR1"
+    public static final byte VERSION = 1;
+
+    /** the shuffle of the first MapReduce, from words to counts */
+    public static final byte PHASE_COUNT = 1;
+    /** the shuffle of the second MapReduce, from occurences to lists of words */
+    public static final byte PHASE_SORT = 2;
+
+    /** set on the last frame sent by a slave to another one for a phase, which has no entries */
+    public static final byte FLAG_END_OF_STREAM = 1;
+    /** set on a frame whose payload is compressed */
+    public static final byte FLAG_COMPRESSED = 2;
+    /** set on a frame of {@link #PHASE_COUNT} whose words are in increasing order of their bytes */
+    public static final byte FLAG_SORTED = 4;
+    /** set on a frame of {@link #PHASE_SORT} whose words are front coded */
+    public static final byte FLAG_FRONT_CODED = 8;
+
+    public static final int HEADER_SIZE = 20;
+
+    /**
+     * the maximum size of a frame, header included, before or after its decompression ;
+     * a frame of {@link Config#SHUFFLE_BATCH_SIZE} words is far smaller
+     */
+    public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    private static final int PHASE_OFFSET = 5;
+    private static final int FLAGS_OFFSET = 6;
+    private static final int SENDER_OFFSET = 8;
+    private static final int ENTRIES_OFFSET = 12;
+    private static final int LENGTH_OFFSET = 16;
+
+    /**
+     * Encodes some data into a frame.
+     * @param <T> the type of the data
+     */
+    public interface Encoder<T> {
+        /**
+         * @param data the data to encode
+         * @return the frame, from its position to its limit
+         */
+        ByteBuffer encode(T data);
+    }
+
+    /**
+     * Decodes a frame into some existing data.
+     * @param <T> the type of the data
+     */
+    public interface Decoder<T> {
+        /**
+         * @param frame the frame, from its position to its limit
+         * @param data the data where to add the entries of the frame
+         * @throws IOException if the frame is malformed
+         */
+        void decode(ByteBuffer frame, T data) throws IOException;
+    }
+
+    private final int sender;
+
+    /**
+     * Constructor.
+     * @param sender the id of the slave which encodes the frames
+     */
+    public ShuffleCodec(int sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Encode the frame which ends the stream of frames of a phase.
+     * @param phase the phase
+     * @return the frame
+     */
+    public ByteBuffer encodeEndOfStream(byte phase) {
+        ByteBuffer frame = new Output(HEADER_SIZE).toFrame(phase, sender, 0);
+        frame.put(FLAGS_OFFSET, FLAG_END_OF_STREAM);
+        return frame;
+    }
+
+    ///////////////////////////// FIRST MAPREDUCE /////////////////////////////
+
+    /**
+     * Encode the words and their counts of a partition.
+     * @param partition the words to send
+     * @return the frame
+     */
+    public ByteBuffer encodeCounts(WordCounts partition) {
+        Output out = new Output(HEADER_SIZE + 8 * partition.size());
+        WordCursor cursor = partition.cursor();
+        while (cursor.next()) {
+            out.writeBytes(cursor.wordBytes(), cursor.wordLength());
+            out.writeVarint(cursor.count());
+        }
+        return out.toFrame(PHASE_COUNT, sender, partition.size());
+    }
+
+    /**
+     * Encode the words and their counts of a partition in increasing order of their bytes,
+     * so that the frame can be merged with other sorted frames, see {@link #sortedCounts(ByteBuffer)}.
+     * @param partition the words to send
+     * @return the frame, with the flag {@link #FLAG_SORTED}
+     */
+    public ByteBuffer encodeSortedCounts(WordCounts partition) {
+        Output out = new Output(HEADER_SIZE + 8 * partition.size());
+        for (byte[] entry : SortedRun.sort(partition)) {
+            out.writeBytes(entry, entry.length - 4);
+            out.writeVarint(SortedRun.countOf(entry));
+        }
+        ByteBuffer frame = out.toFrame(PHASE_COUNT, sender, partition.size());
+        frame.put(FLAGS_OFFSET, FLAG_SORTED);
+        return frame;
+    }
+
+    /**
+     * Read the words and their counts of a sorted frame one after the other, without copying them.
+     * @param frame the frame, with the flag {@link #FLAG_SORTED}
+     * @return the words of the frame, in increasing order of their bytes
+     * @throws IOException if the frame is malformed or not sorted
+     */
+    public static SortedRun.Source sortedCounts(ByteBuffer frame) throws IOException {
+        if ((frame.get(frame.position() + FLAGS_OFFSET) & FLAG_SORTED) == 0) {
+            throw new IOException("Shuffle frame not sorted");
+        }
+        int entries = readHeader(frame, PHASE_COUNT);
+        return new SortedRun.Source() {
+
+            private int remaining = entries;
+            private int offset;
+            private int length;
+            private int count;
+
+            @Override
+            public boolean next() throws IOException {
+                if (remaining == 0) {
+                    return false;
+                }
+                remaining--;
+                length = readLength(frame);
+                offset = frame.arrayOffset() + frame.position();
+                frame.position(frame.position() + length);
+                count = readVarint(frame);
+                return true;
+            }
+
+            @Override
+            public byte[] bytes() {
+                return frame.array();
+            }
+
+            @Override
+            public int offset() {
+                return offset;
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public int count() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Add the words and their counts of a frame to a table.
+     * @param frame the frame to decode
+     * @param counts the table where to add the words
+     * @throws IOException if the frame is malformed
+     */
+    public static void decodeCounts(ByteBuffer frame, WordCounts counts) throws IOException {
+        int entries = readHeader(frame, PHASE_COUNT);
+        byte[] word = new byte[64];
+        for (int k = 0; k < entries; k++) {
+            int length = readLength(frame);
+            if (word.length < length) {
+                word = new byte[Math.max(length, 2 * word.length)];
+            }
+            frame.get(word, 0, length);
+            counts.add(word, length, readVarint(frame));
+        }
+    }
+
+    ///////////////////////////// SECOND MAPREDUCE /////////////////////////////
+
+    /**
+     * Encode the occurences and their lists of words of a partition.
+     * The words of a bucket are already packed like in a frame, so they are copied as they are,
+     * unless they are front coded ({@link Config#SHUFFLE_FRONT_CODING}).
+     * @param partition the occurences to send
+     * @return the frame
+     */
+    public ByteBuffer encodeBuckets(FrequencyBuckets partition) {
+        Output out = new Output(HEADER_SIZE + 16 * (int) Math.min(partition.getNbWords(), 1 << 20));
+        int entries = 0;
+        FrequencyBuckets.BucketCursor cursor = partition.cursor();
+        while (cursor.next()) {
+            FrequencyBuckets.Bucket bucket = cursor.bucket();
+            out.writeVarint(cursor.count());
+            out.writeVarint(bucket.getNbWords());
+            if (Config.SHUFFLE_FRONT_CODING) {
+                writeFrontCoded(bucket, out);
+            } else {
+                out.writeRaw(bucket.getData(), 0, bucket.getDataLength());
+            }
+            entries++;
+        }
+        ByteBuffer frame = out.toFrame(PHASE_SORT, sender, entries);
+        if (Config.SHUFFLE_FRONT_CODING) {
+            frame.put(FLAGS_OFFSET, FLAG_FRONT_CODED);
+        }
+        return frame;
+    }
+
+    /**
+     * Write the words of a bucket sorted, each one without the bytes it shares with the previous one.
+     */
+    private static void writeFrontCoded(FrequencyBuckets.Bucket bucket, Output out) {
+        int n = bucket.getNbWords();
+        byte[] data = bucket.getData();
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        Integer[] order = new Integer[n];
+        FrequencyBuckets.WordIterator word = bucket.words();
+        for (int k = 0; word.next(); k++) {
+            offsets[k] = word.offset();
+            lengths[k] = word.length();
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> SortedRun.compare(data, offsets[a], lengths[a], data, offsets[b], lengths[b]));
+
+        int previous = -1;
+        for (int k : order) {
+            int shared = 0;
+            if (previous >= 0) {
+                int max = Math.min(lengths[previous], lengths[k]);
+                while (shared < max && data[offsets[previous] + shared] == data[offsets[k] + shared]) {
+                    shared++;
+                }
+            }
+            out.writeVarint(shared);
+            out.writeVarint(lengths[k] - shared);
+            out.writeRaw(data, offsets[k] + shared, lengths[k] - shared);
+            previous = k;
+        }
+    }
+
+    /**
+     * Add the occurences and their lists of words of a frame to some buckets.
+     * @param frame the frame to decode
+     * @param buckets the buckets where to add the words
+     * @throws IOException if the frame is malformed
+     */
+    public static void decodeBuckets(ByteBuffer frame, FrequencyBuckets buckets) throws IOException {
+        boolean frontCoded = (frame.get(frame.position() + FLAGS_OFFSET) & FLAG_FRONT_CODED) != 0;
+        int entries = readHeader(frame, PHASE_SORT);
+        byte[] word = new byte[64];
+        for (int k = 0; k < entries; k++) {
+            int occurence = readVarint(frame);
+            int nbWords = readVarint(frame);
+            if (frontCoded) {
+                int length = 0;
+                for (int w = 0; w < nbWords; w++) {
+                    int shared = readVarint(frame);
+                    if (shared < 0 || shared > length) {
+                        throw new IOException("Corrupt shuffle frame : " + shared + " bytes shared with a word of "
+                            + length + " bytes");
+                    }
+                    int rest = readLength(frame);
+                    if (word.length < shared + rest) {
+                        word = Arrays.copyOf(word, Math.max(shared + rest, 2 * word.length));
+                    }
+                    frame.get(word, shared, rest);
+                    length = shared + rest;
+                    buckets.add(occurence, word, 0, length);
+                }
+                continue;
+            }
+            // skip the words to find the end of the packed words
+            int start = frame.position();
+            for (int w = 0; w < nbWords; w++) {
+                int length = readLength(frame);
+                frame.position(frame.position() + length);
+            }
+            buckets.addPacked(occurence, frame.array(), frame.arrayOffset() + start, frame.position() - start, nbWords);
+        }
+    }
+
+    ///////////////////////////// COMPRESSION /////////////////////////////
+
+    /**
+     * Compress the payload of a frame.
+     * @param frame the frame, from its position to its limit, which must have an array
+     * @param deflater the deflater to use, created with <code>nowrap</code>
+     * @return the compressed frame, with the flag {@link #FLAG_COMPRESSED}
+     */
+    public static ByteBuffer compress(ByteBuffer frame, Deflater deflater) {
+        int start = frame.arrayOffset() + frame.position();
+        int payloadLength = frame.remaining() - HEADER_SIZE;
+        deflater.reset();
+        deflater.setInput(frame.array(), start + HEADER_SIZE, payloadLength);
+        deflater.finish();
+        byte[] out = new byte[HEADER_SIZE + 4 + payloadLength / 2 + 64];
+        int length = HEADER_SIZE + 4;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, 2 * out.length);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        System.arraycopy(frame.array(), start, out, 0, HEADER_SIZE);
+        out[FLAGS_OFFSET] |= FLAG_COMPRESSED;
+        ByteBuffer compressed = ByteBuffer.wrap(out, 0, length);
+        compressed.putInt(LENGTH_OFFSET, length - HEADER_SIZE);
+        compressed.putInt(HEADER_SIZE, payloadLength);
+        return compressed;
+    }
+
+    /**
+     * Decompress the payload of a frame with the flag {@link #FLAG_COMPRESSED}.
+     * @param frame the frame, from its position to its limit, which must have an array
+     * @param inflater the inflater to use, created with <code>nowrap</code>
+     * @return the original frame
+     * @throws IOException if the frame is malformed
+     */
+    public static ByteBuffer decompress(ByteBuffer frame, Inflater inflater) throws IOException {
+        int start = frame.arrayOffset() + frame.position();
+        if (frame.remaining() < HEADER_SIZE + 4) {
+            throw new IOException("Truncated compressed shuffle frame of " + frame.remaining() + " bytes");
+        }
+        int payloadLength = frame.getInt(frame.position() + HEADER_SIZE);
+        if (payloadLength < 0 || payloadLength > MAX_FRAME_SIZE - HEADER_SIZE) {
+            throw new IOException("Invalid length of compressed payload : " + payloadLength);
+        }
+        byte[] out = new byte[HEADER_SIZE + payloadLength];
+        System.arraycopy(frame.array(), start, out, 0, HEADER_SIZE);
+        out[FLAGS_OFFSET] &= ~FLAG_COMPRESSED;
+        inflater.reset();
+        inflater.setInput(frame.array(), start + HEADER_SIZE + 4, frame.remaining() - HEADER_SIZE - 4);
+        int length = HEADER_SIZE;
+        try {
+            while (length < out.length && !inflater.finished() && !inflater.needsInput()) {
+                length += inflater.inflate(out, length, out.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed shuffle frame : " + e.getMessage(), e);
+        }
+        if (length != out.length) {
+            throw new IOException("Compressed shuffle frame of " + (length - HEADER_SIZE)
+                + " bytes instead of " + payloadLength);
+        }
+        ByteBuffer result = ByteBuffer.wrap(out);
+        result.putInt(LENGTH_OFFSET, payloadLength);
+        return result;
+    }
+
+    ///////////////////////////// HEADER /////////////////////////////
+
+    /**
+     * Get the id of the sender of a frame.
+     * @param frame the frame, from its position
+     * @return the id written in the header
+     */
+    public static int getSender(ByteBuffer frame) {
+        return frame.getInt(frame.position() + SENDER_OFFSET);
+    }
+
+    /**
+     * Get the phase of a frame.
+     * @param frame the frame, from its position
+     * @return the phase written in the header
+     */
+    public static byte getPhase(ByteBuffer frame) {
+        return frame.get(frame.position() + PHASE_OFFSET);
+    }
+
+    /**
+     * Check if a frame ends the stream of frames of a slave.
+     * @param frame the frame, from its position
+     * @return true if the flag {@link #FLAG_END_OF_STREAM} is set
+     */
+    public static boolean isEndOfStream(ByteBuffer frame) {
+        return (frame.get(frame.position() + FLAGS_OFFSET) & FLAG_END_OF_STREAM) != 0;
+    }
+
+    /**
+     * Check if the payload of a frame is compressed.
+     * @param frame the frame, from its position
+     * @return true if the flag {@link #FLAG_COMPRESSED} is set
+     */
+    public static boolean isCompressed(ByteBuffer frame) {
+        return (frame.get(frame.position() + FLAGS_OFFSET) & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Check the header of a frame and move to its payload.
+     * @param frame the frame
+     * @param phase the expected phase
+     * @return the number of entries
+     * @throws IOException if the header is not the one expected
+     */
+    private static int readHeader(ByteBuffer frame, byte phase) throws IOException {
+        if (frame.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated shuffle frame of " + frame.remaining() + " bytes");
+        }
+        int start = frame.position();
+        if (frame.getInt(start) != MAGIC || frame.get(start + 4) != VERSION) {
+            throw new IOException("Not a shuffle frame of version " + VERSION);
+        }
+        if (frame.get(start + PHASE_OFFSET) != phase) {
+            throw new IOException("Received a frame of phase " + frame.get(start + PHASE_OFFSET)
+                + " instead of " + phase);
+        }
+        if ((frame.get(start + FLAGS_OFFSET) & FLAG_COMPRESSED) != 0) {
+            throw new IOException("Shuffle frame still compressed");
+        }
+        int length = frame.getInt(start + LENGTH_OFFSET);
+        if (frame.remaining() != HEADER_SIZE + length) {
+            throw new IOException("Shuffle frame of " + frame.remaining() + " bytes instead of "
+                + (HEADER_SIZE + length));
+        }
+        frame.position(start + HEADER_SIZE);
+        return frame.getInt(start + ENTRIES_OFFSET);
+    }
+
+    /**
+     * Read the length of a word, which must be in the rest of the frame.
+     * @param frame the frame, at the length
+     * @return the length
+     * @throws IOException if the length is negative or longer than the rest of the frame
+     */
+    private static int readLength(ByteBuffer frame) throws IOException {
+        int length = readVarint(frame);
+        if (length < 0 || length > frame.remaining()) {
+            throw new IOException("Corrupt shuffle frame : word of " + length + " bytes with "
+                + frame.remaining() + " bytes left");
+        }
+        return length;
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Corrupt shuffle frame : truncated varint");
+            }
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in shuffle frame");
+    }
+
+    /**
+     * A growable buffer to write a frame, starting with an empty header.
+     */
+    private static class Output {
+
+        private byte[] buffer;
+        private int length = HEADER_SIZE;
+
+        Output(int capacity) {
+            buffer = new byte[Math.max(capacity, HEADER_SIZE)];
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int n) {
+            writeVarint(n);
+            ensure(n);
+            System.arraycopy(bytes, 0, buffer, length, n);
+            length += n;
+        }
+
+        void writeRaw(byte[] bytes, int offset, int n) {
+            ensure(n);
+            System.arraycopy(bytes, offset, buffer, length, n);
+            length += n;
+        }
+
+        private void ensure(int n) {
+            if (length + n > buffer.length) {
+                byte[] bigger = new byte[Math.max(length + n, 2 * buffer.length)];
+                System.arraycopy(buffer, 0, bigger, 0, length);
+                buffer = bigger;
+            }
+        }
+
+        ByteBuffer toFrame(byte phase, int sender, int entries) {
+            ByteBuffer frame = ByteBuffer.wrap(buffer, 0, length);
+            frame.putInt(0, MAGIC);
+            frame.put(4, VERSION);
+            frame.put(PHASE_OFFSET, phase);
+            frame.put(FLAGS_OFFSET, (byte) 0);
+            frame.put(7, (byte) 0);
+            frame.putInt(SENDER_OFFSET, sender);
+            frame.putInt(ENTRIES_OFFSET, entries);
+            frame.putInt(LENGTH_OFFSET, length - HEADER_SIZE);
+            return frame;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package src.slave;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import src.Config;
+import src.Statistics;
+
+/**
+ * ShuffleCompressor.java
+ *
+ * Decides, batch by batch, whether the frames sent to a slave are compressed, according to
+ * {@link Config#SHUFFLE_COMPRESSION} :
+ * <ul>
+ * <li><code>none</code> : never</li>
+ * <li><code>deflate</code> : always, unless the frame doesn't get smaller enough</li>
+ * <li><code>adaptive</code> : only if compressing a byte takes less time than sending the bytes it saves.
+ * The speed of the compression, the ratio and the speed of the link are measured on the previous batches;
+ * when the compression is not worth it, a batch is still compressed from time to time to update them.
+ * The speed of the link is measured on windows of several batches, much larger than the send buffer of the socket :
+ * writing a single batch mostly copies it into this buffer, which is much faster than the link.</li>
+ * </ul>
+ * One compressor is used by a single thread, for a single link.
+ */
+public class ShuffleCompressor {
+
+    // a compressed frame must be at least 10% smaller to be sent
+    private static final double MIN_SAVING = 0.1;
+    // number of batches sent without compression before measuring it again
+    private static final int PROBE_INTERVAL = 16;
+    // weight of the last measure in the averages
+    private static final double SMOOTHING = 0.5;
+    // minimum number of bytes sent to measure the speed of the link
+    private static final long LINK_WINDOW = Math.max(8 * 1024 * 1024, 4L * Config.SEND_BUFFER_SIZE);
+
+    private final Deflater deflater;
+    private final boolean adaptive;
+    private final Statistics statistics;
+
+    // averages, in bytes per nanosecond and fraction of the bytes
+    private double compressionSpeed = 0;
+    private double saving = 0;
+    private double linkSpeed = 0;
+    private int uncompressedBatches = 0;
+
+    // the frames sent since the last measure of the speed of the link
+    private long windowBytes = 0;
+    private long windowTime = 0;
+
+    /**
+     * Constructor.
+     * @param statistics the statistics of the slave, where to count the bytes and the time
+     */
+    public ShuffleCompressor(Statistics statistics) {
+        this.statistics = statistics;
+        this.adaptive = "adaptive".equals(Config.SHUFFLE_COMPRESSION);
+        this.deflater = "none".equals(Config.SHUFFLE_COMPRESSION)
+            ? null : new Deflater(Config.SHUFFLE_COMPRESSION_LEVEL, true);
+    }
+
+    /**
+     * Compress a frame if it is worth it.
+     * @param frame the frame to send
+     * @return the frame to send instead, compressed or not
+     */
+    public ByteBuffer compress(ByteBuffer frame) {
+        int raw = frame.remaining();
+        statistics.add(Statistics.SHUFFLE_RAW_BYTES, raw);
+        if (deflater == null) {
+            return frame;
+        }
+        if (adaptive && !isWorthCompressing() && ++uncompressedBatches < PROBE_INTERVAL) {
+            return frame;
+        }
+        uncompressedBatches = 0;
+
+        long start = System.nanoTime();
+        ByteBuffer compressed = ShuffleCodec.compress(frame, deflater);
+        long duration = Math.max(1, System.nanoTime() - start);
+        statistics.add(Statistics.SHUFFLE_CODEC_TIME, duration);
+
+        compressionSpeed = average(compressionSpeed, (double) raw / duration);
+        saving = average(saving, 1 - (double) compressed.remaining() / raw);
+        if (compressed.remaining() > raw * (1 - MIN_SAVING)) {
+            return frame;
+        }
+        statistics.add(Statistics.SHUFFLE_COMPRESSED_FRAMES, 1);
+        return compressed;
+    }
+
+    /**
+     * Measure the speed of the link with a frame sent, once enough bytes are sent.
+     * @param bytes the size of the frame sent
+     * @param duration the time between the moment the batch was given to the sender and the end of its writing,
+     * in nanoseconds
+     */
+    public void sent(int bytes, long duration) {
+        statistics.add(Statistics.SHUFFLE_SENT_BYTES, bytes);
+        windowBytes += bytes;
+        windowTime += duration;
+        if (windowBytes >= LINK_WINDOW) {
+            linkSpeed = average(linkSpeed, (double) windowBytes / Math.max(1, windowTime));
+            windowBytes = 0;
+            windowTime = 0;
+        }
+    }
+
+    /**
+     * Release the resources of the compressor.
+     */
+    public void end() {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compressing is worth it if the time to send the bytes saved, <code>saving / linkSpeed</code> per byte,
+     * is greater than the time to compress, <code>1 / compressionSpeed</code> per byte.
+     */
+    private boolean isWorthCompressing() {
+        if (compressionSpeed == 0 || linkSpeed == 0) {
+            // nothing measured yet
+            return true;
+        }
+        return saving >= MIN_SAVING && saving * compressionSpeed > linkSpeed;
+    }
+
+    private static double average(double average, double measure) {
+        return average == 0 ? measure : SMOOTHING * measure + (1 - SMOOTHING) * average;
+    }
+
+}
@@ -0,0 +1,313 @@
+package src.slave;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Inflater;
+
+import src.Config;
+import src.Statistics;
+
+/**
+ * ShuffleEndpoint.java
+ *
+ * The endpoint of a slave receiving the data of the shuffles from all the other slaves :
+ * one port and one thread, which multiplexes the connections of all the peers with a Selector,
+ * instead of one ServerSocket and one thread per peer and per shuffle.
+ *
+ * It is opened once, when the slave starts, and used by all the shuffles : each other slave
+ * connects once (see {@link PeerMesh}) and sends the frames of all the phases on its connection.
+ * On a connection, the frames of {@link ShuffleCodec} are preceded by their length (an int).
+ * Each frame is dispatched to the reception of its phase and decoded into the table of its sender,
+ * both read from its header, so a connection doesn't need any handshake.
+ */
+public class ShuffleEndpoint extends Thread {
+
+    /**
+     * The frames received from the other slaves for a phase.
+     * @param <T> the type of the tables where the frames are decoded
+     */
+    public static class Reception<T> {
+
+        private final byte phase;
+        private final T[] tables;
+        private final ShuffleCodec.Decoder<T> decoder;
+        private final CountDownLatch remainingSenders;
+        private final int[] nbBatches;
+        private final long[] nbBytes;
+        private final boolean[] ended;
+
+        private Reception(byte phase, T[] tables, ShuffleCodec.Decoder<T> decoder) {
+            this.phase = phase;
+            this.tables = tables;
+            this.decoder = decoder;
+            int nbSenders = 0;
+            for (T table : tables) {
+                if (table != null) {
+                    nbSenders++;
+                }
+            }
+            this.remainingSenders = new CountDownLatch(nbSenders);
+            this.nbBatches = new int[tables.length];
+            this.nbBytes = new long[tables.length];
+            this.ended = new boolean[tables.length];
+        }
+
+        /**
+         * Decode a frame into the table of its sender.
+         * @return true if the frame ends the stream of its sender
+         */
+        private boolean receive(ByteBuffer frame) throws IOException {
+            int sender = ShuffleCodec.getSender(frame);
+            if (sender < 0 || sender >= tables.length || tables[sender] == null) {
+                throw new IOException("Unexpected sender " + sender + " for phase " + phase);
+            }
+            if (ended[sender]) {
+                throw new IOException("Frame received from slave " + sender + " after the end of its stream for phase "
+                    + phase);
+            }
+            if (ShuffleCodec.isEndOfStream(frame)) {
+                ended[sender] = true;
+                System.out.println("Received " + nbBatches[sender] + " batches (" + nbBytes[sender]
+                    + " bytes) from slave " + sender + " for phase " + phase);
+                remainingSenders.countDown();
+                return true;
+            }
+            nbBatches[sender]++;
+            nbBytes[sender] += frame.remaining();
+            decoder.decode(frame, tables[sender]);
+            return false;
+        }
+
+        /**
+         * <strong>Blocking</strong> method to wait for the end of the streams of all the senders.
+         * @return the tables, indexed by the id of their sender
+         */
+        public T[] await() throws InterruptedException {
+            remainingSenders.await();
+            return tables;
+        }
+    }
+
+    /**
+     * The state of the reading of a connection.
+     */
+    private static class Connection {
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+        private ByteBuffer frame;
+    }
+
+    private final int port;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final Statistics statistics;
+    private final Inflater inflater = new Inflater(true);
+
+    // only used by the thread of the endpoint
+    private final HashMap<Byte, Reception<?>> receptions = new HashMap<Byte, Reception<?>>();
+    private final List<ByteBuffer> pendingFrames = new ArrayList<ByteBuffer>();
+
+    private final ConcurrentLinkedQueue<Reception<?>> newReceptions = new ConcurrentLinkedQueue<Reception<?>>();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor : listen to the port, the connections are accepted once the thread is started.
+     * @param port the port to listen to
+     * @param statistics the statistics of the slave, where to count the time to decompress
+     * @throws IOException if the port can't be listened to
+     */
+    public ShuffleEndpoint(int port, Statistics statistics) throws IOException {
+        super("shuffle-endpoint-" + port);
+        this.port = port;
+        this.statistics = statistics;
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        if (Config.RECEIVE_BUFFER_SIZE > 0) {
+            // inherited by the accepted connections, set before binding for the window scaling
+            this.listener.setOption(StandardSocketOptions.SO_RCVBUF, Config.RECEIVE_BUFFER_SIZE);
+        }
+        this.listener.bind(new InetSocketAddress(port));
+        this.listener.configureBlocking(false);
+        this.listener.register(selector, SelectionKey.OP_ACCEPT);
+        setDaemon(true);
+        printOut("shuffle endpoint listening on port " + port);
+    }
+
+    /**
+     * Get ready to receive the frames of a phase. It must be called before the other slaves
+     * may send them : the frames of a phase without reception are kept until it is expected.
+     * @param phase the phase of the frames
+     * @param tables the tables where to decode the frames of each sender, null for the slaves which send nothing
+     * @param decoder the decoder of the frames
+     * @return the reception, to wait for its end
+     */
+    public <T> Reception<T> expect(byte phase, T[] tables, ShuffleCodec.Decoder<T> decoder) {
+        Reception<T> reception = new Reception<T>(phase, tables, decoder);
+        newReceptions.add(reception);
+        selector.wakeup();
+        return reception;
+    }
+
+    /**
+     * Stop the thread and close all the connections.
+     */
+    public void shutdown() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Get the port of the endpoint.
+     * @return the port as an int
+     */
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                registerReceptions();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+            close();
+        } catch (IOException e) {
+            printErr("error during the shuffle : " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void close() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        inflater.end();
+    }
+
+    private void registerReceptions() throws IOException {
+        Reception<?> reception;
+        while ((reception = newReceptions.poll()) != null) {
+            if (receptions.containsKey(reception.phase)) {
+                throw new IOException("Phase " + reception.phase + " is already expected");
+            }
+            receptions.put(reception.phase, reception);
+            Iterator<ByteBuffer> pending = pendingFrames.iterator();
+            while (pending.hasNext()) {
+                ByteBuffer frame = pending.next();
+                if (ShuffleCodec.getPhase(frame) == reception.phase) {
+                    pending.remove();
+                    dispatch(frame);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = listener.accept();
+        if (channel != null) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, Config.TCP_NO_DELAY);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    /**
+     * Read the frames available on a connection.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        while (true) {
+            ByteBuffer target = connection.frame == null ? connection.length : connection.frame;
+            int n = channel.read(target);
+            if (n < 0) {
+                if (connection.frame != null || connection.length.position() > 0) {
+                    throw new IOException("Connection closed in the middle of a frame");
+                }
+                key.cancel();
+                channel.close();
+                return;
+            }
+            if (target.hasRemaining()) {
+                // wait for the next bytes
+                return;
+            }
+            if (connection.frame == null) {
+                int length = connection.length.getInt(0);
+                if (length < ShuffleCodec.HEADER_SIZE || length > ShuffleCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid length of shuffle frame : " + length + " (at most "
+                        + ShuffleCodec.MAX_FRAME_SIZE + " bytes, lower mr.shuffle.batch)");
+                }
+                connection.frame = ByteBuffer.allocate(length);
+            } else {
+                ByteBuffer frame = connection.frame;
+                frame.flip();
+                connection.frame = null;
+                connection.length.clear();
+                dispatch(frame);
+            }
+        }
+    }
+
+    private void dispatch(ByteBuffer frame) throws IOException {
+        if (ShuffleCodec.isCompressed(frame)) {
+            long start = System.nanoTime();
+            frame = ShuffleCodec.decompress(frame, inflater);
+            statistics.add(Statistics.SHUFFLE_CODEC_TIME, System.nanoTime() - start);
+        }
+        byte phase = ShuffleCodec.getPhase(frame);
+        Reception<?> reception = receptions.get(phase);
+        if (reception == null) {
+            pendingFrames.add(frame);
+        } else if (reception.receive(frame) && reception.remainingSenders.getCount() == 0) {
+            // the phase may be expected again
+            receptions.remove(phase);
+        }
+    }
+
+    private void identifiedPrint(String message, PrintStream stream) {
+        stream.println("[" + this.getName() + "] " + message);
+    }
+
+    /**
+     * Print a message to the standard output.
+     * @param message the message to print
+     */
+    private void printOut(String message) {
+        identifiedPrint(message, System.out);
+    }
+
+    /**
+     * Print a message to the standard error.
+     * @param message the message to print
+     */
+    private void printErr(String message) {
+        identifiedPrint(message, System.err);
+    }
+
+}
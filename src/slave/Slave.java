@@ -1,19 +1,30 @@
 package src.slave;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import src.CommunicationException;
-import src.Range;
+import src.Config;
+import src.FrequencyBuckets;
+import src.Histogram;
+import src.Partitioner;
 import src.Server;
+import src.ShardedWordCounts;
+import src.SplitPoints;
+import src.SplitProgress;
+import src.Statistics;
 import src.SynchronizationMessage;
+import src.TopWords;
 import src.Utils;
+import src.WordCounts;
+import src.WordCursor;
 
 /**
  * Slave.java
@@ -22,14 +33,23 @@ import src.Utils;
  * 
  * <h2>Attribution of ports</h2>
  * 
- * The port 9999 + i is attributed to the slave i,
- * except for the id of this slave which corresponds to the port for the master.
+ * The port 9999 + i of the slave i is used by the master to talk to it,
+ * and the port 9999 + NB_SLAVES + i by the other slaves to send it their data during the shuffles
+ * (see {@link ShuffleEndpoint}). All the ports of the cluster are distinct,
+ * so several slaves can run on the same machine.
  */
 public class Slave extends Thread {
     
     
     private static final int FIRST_PORT = 9999;
 
+    // in the lines of the result : "count : [word, word]"
+    private static final byte[] WORD_SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LINE_END = "]\n".getBytes(StandardCharsets.UTF_8);
+
+    // minimum time between two reports of the progress of a split to the master, in ms
+    private static final long PROGRESS_INTERVAL = 500;
+
 
     private static String SPLITFILE_PREFIX = "/cal/commoncrawl/CC-MAIN-20230320083513-20230320113513-000" ;
     // private static final String SPLITFILE_SUFFIX = ".warc.wet" ;
@@ -54,17 +74,19 @@ public class Slave extends Thread {
      * <li>args[0] : NB_SLAVES</li>
      * <li>args[2] : NB_SPLITS</li>
      * <li>args[3] : SPLITFILE_PREFIX</li>
+     * <li>args[4] (optional) : the id of the slave, instead of finding the hostname in the list of computers,
+     * to run several slaves on the same host</li>
      * </ul>
      * 
-     * @param args the arguments : filename NB_SLAVES NB_SPLITS
+     * @param args the arguments : filename NB_SLAVES NB_SPLITS SPLITFILE_PREFIX [id]
      */
     public static void main(String[] args) {
 
         System.out.println("Slave program started.");
         // Utils.printMemorySizes();
         
-        if (args.length != 4) {
-            System.err.println("Usage: java Slave <NB_SLAVES> <filename> <NB_SPLITS> <SPLITFILE_PREFIX>");
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("Usage: java Slave <NB_SLAVES> <filename> <NB_SPLITS> <SPLITFILE_PREFIX> [id]");
             System.out.println("Arguments were :");
             Utils.prettyPrintTable(args);
             System.exit(1);
@@ -84,27 +106,7 @@ public class Slave extends Thread {
 
         // Get the id of the slave
 
-        String hostname = null;
-
-        try {
-            InetAddress addr = InetAddress.getLocalHost();
-            hostname = addr.getHostName();
-        } catch (UnknownHostException ex) {
-            System.err.println("Hostname can't be resolved");
-            System.exit(1);
-        }
-        System.out.println("Slave on " + hostname);
-        int id = -1;
-        for (int i = 0; i < nbSlaves; i++) {
-            if (hostname.equals(machineNames[i])) {
-                id = i;
-                break;
-            }
-        }
-        if (id == -1) {
-            System.err.println("Hostname " + hostname + " is not a slave.");
-            System.exit(1);
-        }
+        int id = args.length == 5 ? getIdFromArgument(args[4], nbSlaves) : getIdFromHostname(machineNames, nbSlaves);
         System.out.println("Slave id = " + id);
 
         // launch the slave
@@ -126,6 +128,19 @@ public class Slave extends Thread {
 
     private final int id ;
     private final Server serverForMaster ;
+    private final ShuffleCodec codec ;
+    private final Partitioner partitioner ;
+    private ShuffleEndpoint endpoint ;
+    private PeerMesh mesh ;
+    private HeartbeatThread heartbeat ;
+    // the slaves still alive, all of them unless some are lost during the map with the fault tolerance
+    private final boolean[] alive ;
+    private int[] aliveSlaves ;
+    // the slave receiving each partition at the shuffle, null unless set by the master with the fault tolerance
+    private int[] owners ;
+    private final Statistics statistics = new Statistics() ;
+    // the runs spilled by the map, merged by the reduce
+    private final ShardedRuns spilledRuns = new ShardedRuns(Config.REDUCE_THREADS) ;
 
     public Slave(int id, String[] machineNames, int nbSlaves, int nbSplits) {
         this.id = id ;
@@ -133,6 +148,64 @@ public class Slave extends Thread {
         this.NB_SLAVES = nbSlaves ;
         this.NB_SPLITS = nbSplits ;
         this.serverForMaster = new Server(FIRST_PORT + this.id) ;
+        this.codec = new ShuffleCodec(this.id) ;
+        this.partitioner = Partitioner.create(nbSlaves) ;
+        this.alive = new boolean[nbSlaves] ;
+        Arrays.fill(this.alive, true) ;
+        this.aliveSlaves = new int[nbSlaves] ;
+        Arrays.setAll(this.aliveSlaves, i -> i) ;
+    }
+
+    /**
+     * Get the id of the slave from the position of the hostname of this computer in the list of computers
+     * @param machineNames the list of computers
+     * @param nbSlaves the number of slaves
+     * @return the id of the slave
+     */
+    private static int getIdFromHostname(String[] machineNames, int nbSlaves) {
+        String hostname = null;
+
+        try {
+            InetAddress addr = InetAddress.getLocalHost();
+            hostname = addr.getHostName();
+        } catch (UnknownHostException ex) {
+            System.err.println("Hostname can't be resolved");
+            System.exit(1);
+        }
+        System.out.println("Slave on " + hostname);
+        int id = -1;
+        for (int i = 0; i < nbSlaves; i++) {
+            if (hostname.equals(machineNames[i])) {
+                id = i;
+                break;
+            }
+        }
+        if (id == -1) {
+            System.err.println("Hostname " + hostname + " is not a slave.");
+            System.exit(1);
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of the slave given as an argument, when several slaves run on the same host
+     * @param argument the id
+     * @param nbSlaves the number of slaves
+     * @return the id of the slave
+     */
+    private static int getIdFromArgument(String argument, int nbSlaves) {
+        int id = -1;
+        try {
+            id = Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: java Slave <NB_SLAVES> <filename> <NB_SPLITS> <SPLITFILE_PREFIX> [id]");
+            System.exit(1);
+        }
+        if (id < 0 || id >= nbSlaves) {
+            System.err.println("The id " + id + " is not between 0 and " + (nbSlaves - 1) + ".");
+            System.exit(1);
+        }
+        return id;
     }
 
     @Override
@@ -142,8 +215,17 @@ public class Slave extends Thread {
         // Open connection to the master and wait for the start message
 
         try {
-        
+
+        // Listen to the other slaves before the master can start them
+        endpoint = new ShuffleEndpoint(getShufflePort(this.id), statistics) ;
+        endpoint.start() ;
+
         serverForMaster.openConnection();
+        if (Config.FAULT_TOLERANT) {
+            // Show the master this slave is alive, even while it is busy
+            heartbeat = new HeartbeatThread(serverForMaster) ;
+            heartbeat.start() ;
+        }
         Object message = serverForMaster.receiveObject() ;
 
         // Change the message to START if run on the simple example
@@ -152,31 +234,56 @@ public class Slave extends Thread {
             System.exit(1) ;
         }
 
-        // Prepare to map
-        // String[] portion = getSplitString() ;
-        String portion = getSplitString() ;
+        // Tell the master from where the job can be resumed, and learn from where it is resumed
+        Checkpoint checkpoint = null ;
+        boolean resumed = false ;
+        if (Config.CHECKPOINT || Config.RESUME) {
+            checkpoint = new Checkpoint(this.id, NB_SLAVES, NB_SPLITS, SPLITFILE_PREFIX) ;
+        }
+        if (Config.RESUME) {
+            resumed = resume(checkpoint) ;
+        }
 
-        System.out.println("Slave " + id + " is ready to map.") ;
-        nextStep(SynchronizationMessage.READY_TO_MAP, SynchronizationMessage.START) ;
+        // Connect once to all the other slaves, for all the shuffles
+        mesh = new PeerMesh(this.id, MACHINE_NAMES, getShufflePorts()) ;
+        mesh.connect() ;
 
-        // Map
-        HashMap<String, Integer> mapResult = map(portion) ;
+        WordCounts reduceResult ;
+        if (resumed) {
+            // Load the words counted by a previous run of the job, instead of counting them again
+            reduceResult = checkpoint.load() ;
+        } else {
+            // Count the words with the first MapReduce
+            reduceResult = countWords() ;
+            if (Config.CHECKPOINT) {
+                checkpoint.save(reduceResult, getPartitions()) ;
+            }
+        }
+        reduceResult = filter(reduceResult) ;
 
-        // Shuffle
-        HashMap<String, Integer>[] shuffleResult = shuffle(mapResult) ;
+        if (Config.TOP_K > 0) {
+            // Send only the most frequent words to the master
+            topK(reduceResult) ;
+        } else {
+            // Map for sorting
+            FrequencyBuckets mapResult2 = map2(reduceResult) ;
 
-        // Reduce
-        HashMap<String, Integer> reduceResult = reduce(shuffleResult) ;
+            // Shuffle for sorting
+            FrequencyBuckets[] shuffleResult2 = shuffle2(mapResult2) ;
 
-        // Map for sorting
-        HashMap<Integer, List<String>> mapResult2 = map2(reduceResult) ;
+            // Reduce for sorting
+            FrequencyBuckets reduceResult2 = reduce2(shuffleResult2) ;
+            sort(reduceResult2, getResultFilename()) ;
+        }
 
-        // Shuffle for sorting
-        HashMap<Integer, List<String>>[] shuffleResult2 = shuffle2(mapResult2) ;
+        // Send what was measured during the job to the master
+        serverForMaster.sendObject(statistics) ;
+        if (heartbeat != null) {
+            heartbeat.shutdown() ;
+        }
 
-        // Reduce for sorting
-        HashMap<Integer, List<String>> reduceResult2 = reduce2(shuffleResult2) ;
-        sort(reduceResult2, "/tmp/echatelin-21/result-" + id + ".txt") ;
+        mesh.close() ;
+        endpoint.shutdown() ;
         // System.out.println("Slave " + id + " reduceResult : " + reduceResult) ;
 
         } catch (CommunicationException e) {
@@ -189,92 +296,240 @@ public class Slave extends Thread {
     }
 
     /**
-     * Read a file and return its content as a String
-     * @param filename the name (whole path) of the file to read
-     * @param sb the StringBuilder to use
-     * @return the content of the file as a String
+     * Set the prefix of the split files, for all the slaves of this JVM
+     * @param prefix the path of the split files without their number
      */
-    // public static List<String> readFile(String filename) {
-    public static String readFile(String filename, StringBuilder sb) {
-        // For better performance, we use StringBuilder instead of String
-        BufferedReader br = null;
-        // List<String> stringList = new ArrayList<String>() ;
-        try {
-            br = new BufferedReader(new FileReader(filename));
-            String line;
-            while ((line = br.readLine()) != null) {
-                // stringList.add(line) ;
-                sb.append(line).append("\n") ;
-            }
-            // stringList = br.lines().collect(Collectors.toList()) ;
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.exit(1);
-                }
-            }
+    public static void setSplitFilePrefix(String prefix) {
+        SPLITFILE_PREFIX = prefix ;
+    }
+
+    /**
+     * Get the name of the file of the result of this slave, creating its directory if needed
+     * @return the name (whole path) of the file in {@link Config#OUTPUT_DIRECTORY}
+     */
+    private String getResultFilename() {
+        File directory = new File(Config.OUTPUT_DIRECTORY) ;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Slave " + id + " can't create the directory " + directory + ".") ;
         }
-        // return stringList ;
-        return sb.toString() ;
+        return new File(directory, "result-" + id + ".txt").getPath() ;
     }
 
     /**
-     * Retrieve the String to process for this slave, from the split file
-     * @return the String to map for this slave
+     * Get the name of a split file from its number
+     * @param split the number of the split
+     * @return the name (whole path) of the split file
      */
-    public String getSplitString() {
-        StringBuilder sb = new StringBuilder() ;
+    public static String getSplitFilename(int split) {
+        if (split < 10) {
+            return SPLITFILE_PREFIX + "0" + split + SPLITFILE_SUFFIX ;
+        } else {
+            return SPLITFILE_PREFIX + split + SPLITFILE_SUFFIX ;
+        }
+    }
+
+    /**
+     * Retrieve the reader of the splits to process for this slave
+     * @return the reader of the split files of this slave
+     * @throws FileNotFoundException if a split file doesn't exist
+     */
+    public SplitReader getSplitReader() throws FileNotFoundException {
+        String[] filenames = new String[NB_SPLITS] ;
         for (int i = 0; i < NB_SPLITS ; i++) {
-            int id = i + NB_SPLITS * this.id ;
-            if (id < 10) {
-                readFile(SPLITFILE_PREFIX + "0" + id + SPLITFILE_SUFFIX, sb) ;
-            } else {
-                readFile(SPLITFILE_PREFIX + id + SPLITFILE_SUFFIX, sb) ;
-            }
+            filenames[i] = getSplitFilename(i + NB_SPLITS * this.id) ;
         }
-        return sb.toString() ;
+        return new SplitReader(filenames) ;
     }
 
-    // Version with List<String>
-    ///////////////////////////////////////////////////////////////////////////////////////
-    // public String[] getSplitString() {
-    //     List<String> result = new ArrayList<String>() ;
-    //     for (int i = 0; i < NB_SPLITS ; i++) {
-    //         int id = i + NB_SPLITS * this.id ;
-    //         if (id < 10) {
-    //             result.addAll(readFile(SPLITFILE_PREFIX + "0" + id + SPLITFILE_SUFFIX)) ;
-    //         } else {
-    //             result.addAll(readFile(SPLITFILE_PREFIX + id + SPLITFILE_SUFFIX)) ;
-    //         }
-    //     }
-    //     return result.toArray(new String[0]) ;
-    // }
+    /**
+     * Get the splits this slave would process with a fixed attribution, given to it first
+     * by the master with the dynamic splits
+     * @return the numbers of the local splits of this slave
+     */
+    private int[] getLocalSplits() {
+        int[] splits = new int[NB_SPLITS] ;
+        for (int i = 0; i < NB_SPLITS ; i++) {
+            splits[i] = i + NB_SPLITS * this.id ;
+        }
+        return splits ;
+    }
+
+    /**
+     * <strong>Blocking</strong> method to ask the master for the next split to map, with the dynamic splits
+     * @return the name (whole path) of the split file, or null if all the splits have been given
+     * @throws IOException if the communication with the master fails
+     */
+    private String nextSplitFilename() throws IOException {
+        Integer split = nextSplit() ;
+        return split != null ? getSplitFilename(split) : null ;
+    }
 
+    /**
+     * <strong>Blocking</strong> method to ask the master for the next split to map, with the dynamic splits
+     * @return the number of the split, or null if all the splits have been given
+     * @throws IOException if the communication with the master fails
+     */
+    private Integer nextSplit() throws IOException {
+        try {
+            serverForMaster.sendObject(SynchronizationMessage.NEXT_SPLIT) ;
+            Object message = serverForMaster.receiveObject() ;
+            if (message == SynchronizationMessage.NO_MORE_SPLITS) {
+                return null ;
+            }
+            if (!(message instanceof Integer)) {
+                throw new CommunicationException("Received an unexpected message instead of a split : " + message) ;
+            }
+            System.out.println("Slave " + id + " maps the split " + message + ".") ;
+            return (Integer) message ;
+        } catch (CommunicationException e) {
+            throw new IOException("Can't get the next split from the master", e) ;
+        }
+    }
     
     /**
-     * Computes the index of the machine to attribute a word to
-     * (hashcode of the word modulo the number of machines)
-     * @param key the word to attribute to a machine
+     * Computes the index of the machine to attribute a word of the sort to
+     * @param key the occurence of the word
+     * @param position the position of the word among the words with the same occurence
+     * @param splitPoints the split points computed by the master, between the slaves still alive
      * @return the index of the machine to attribute the word to
      */
-    private final int attributeMachine(String key) {
-        return Math.abs(key.hashCode()) % NB_SLAVES;
+    private final int attributeMachine2(int key, long position, SplitPoints splitPoints) {
+        return aliveSlaves[splitPoints.attributeTo(key, position)];
+    }
+
+    /**
+     * Count the words of the splits with the first MapReduce : map, shuffle and reduce,
+     * in the way chosen by the configuration
+     * @return the words this slave is responsible for, with their occurences in all the splits
+     */
+    private WordCounts countWords() throws CommunicationException, IOException {
+
+        // Prepare to map, the splits being asked to the master while mapping with the dynamic splits
+        SplitReader portion = Config.DYNAMIC_SPLITS ? new SplitReader(this::nextSplitFilename) : getSplitReader() ;
+
+        // Listen to the other slaves, which send their words while they are mapping,
+        // and reduce them as they arrive in the pipelined mode
+        MergeThread merger = null ;
+        ShuffleEndpoint.Reception<WordCounts> reception = null ;
+        ShuffleEndpoint.Reception<List<ByteBuffer>> sortedReception = null ;
+        if (Config.FAULT_TOLERANT) {
+            // nothing is sent during the map : the reception is expected at the shuffle,
+            // once the master knows which slaves are still alive
+        } else if (Config.SORTED_SHUFFLE) {
+            // keep the sorted batches as they are, to merge them all at once
+            sortedReception = endpoint.expect(ShuffleCodec.PHASE_COUNT,
+                newTables(newFrameLists(), ArrayList::new), (frame, frames) -> frames.add(frame)) ;
+        } else if (Config.PIPELINED_REDUCE) {
+            MergeThread mergeThread = new MergeThread(WordCounts.create(), Config.SHUFFLE_IN_FLIGHT * NB_SLAVES) ;
+            mergeThread.start() ;
+            reception = endpoint.expect(ShuffleCodec.PHASE_COUNT,
+                newTables(new WordCounts[NB_SLAVES], mergeThread::getResult), (frame, table) -> mergeThread.merge(frame)) ;
+            merger = mergeThread ;
+        } else {
+            reception = endpoint.expect(ShuffleCodec.PHASE_COUNT,
+                newTables(new WordCounts[NB_SLAVES], Slave::newReceivedTable), ShuffleCodec::decodeCounts) ;
+        }
+
+        System.out.println("Slave " + id + " is ready to map.") ;
+        nextStep(SynchronizationMessage.READY_TO_MAP, SynchronizationMessage.START) ;
+        if (Config.DYNAMIC_SPLITS) {
+            serverForMaster.sendObject(getLocalSplits()) ;
+        }
+
+        WordCounts mapResult ;
+        SlaveClientThread<?>[] senders = null ;
+        MapOutputStore outputs = null ;
+        ShuffleCodec.Encoder<WordCounts> encoder = Config.SORTED_SHUFFLE ? codec::encodeSortedCounts : codec::encodeCounts ;
+        if (Config.FAULT_TOLERANT) {
+            // Map, keeping the words of the other slaves on the disk until the shuffle,
+            // in the files of the committed splits added to the outputs
+            outputs = new MapOutputStore(this.id, NB_SLAVES, encoder) ;
+            outputs.close() ;
+            mapResult = mapSplits(encoder, null, outputs) ;
+        } else if (Config.SPECULATIVE_SPLITS) {
+            // Map, sending the words of each committed split to the other slaves by frames
+            SlaveClientThread<ByteBuffer>[] frameSenders = startSenders(frame -> frame, ShuffleCodec.PHASE_COUNT) ;
+            mapResult = mapSplits(encoder, frameSenders, null) ;
+            closeSenders(frameSenders) ;
+            senders = frameSenders ;
+        } else {
+            // Map, sending the words to the other slaves by batches
+            SlaveClientThread<WordCounts>[] batchSenders = startSenders(encoder, ShuffleCodec.PHASE_COUNT) ;
+            mapResult = map(portion, batchSenders) ;
+            senders = batchSenders ;
+        }
+
+        WordCounts reduceResult ;
+        if (outputs != null) {
+            // Shuffle the output of the map to the slaves still alive
+            WordCounts[] shuffleResult = shuffleFromDisk(mapResult, outputs) ;
+
+            // Reduce
+            reduceResult = reduce(shuffleResult) ;
+        } else if (merger != null) {
+            // Shuffle and reduce at the same time
+            reduceResult = shuffleAndReduce(mapResult, reception, senders, merger) ;
+        } else if (sortedReception != null) {
+            // Shuffle the sorted batches
+            List<ByteBuffer>[] shuffleResult = shuffle(new ArrayList<ByteBuffer>(), sortedReception, senders) ;
+
+            // Reduce them with a k-way merge
+            reduceResult = reduceSorted(mapResult, shuffleResult) ;
+        } else {
+            // Shuffle
+            WordCounts[] shuffleResult = shuffle(mapResult, reception, senders) ;
+
+            // Reduce
+            reduceResult = reduce(shuffleResult) ;
+        }
+
+        return reduceResult ;
+    }
+
+    /**
+     * Tell the master the last barrier saved in the checkpoint of this slave, and receive the barrier
+     * from which the master resumes the job : the last one completed by all the slaves
+     * @param checkpoint the checkpoint of this slave
+     * @return true if the job is resumed after the reduce, false if the words must be counted again
+     * @throws CommunicationException if the master sends something else
+     */
+    private boolean resume(Checkpoint checkpoint) throws CommunicationException {
+        serverForMaster.sendObject(checkpoint.getLastBarrier()) ;
+        Object message = serverForMaster.receiveObject() ;
+        if (!(message instanceof SynchronizationMessage)) {
+            throw new CommunicationException("Received an unexpected message instead of the barrier to resume from : " + message) ;
+        }
+        return message == SynchronizationMessage.REDUCE_END ;
     }
 
     /**
-     * Computes the index of the machine to attribute an occurence to
-     * @param key the occurence to attribute to a machine
-     * @param range the global range of the occurences
-     * @return the index of the machine to attribute the occurence to
+     * Get the partitions of the first MapReduce reduced by this slave : its own one,
+     * and the ones of the slaves lost during the map it adopted with the fault tolerance
+     * @return the ids of the machines of the partitions, separated by commas
      */
-    private final int attributeMachine2(int key, Range range) {
-        return range.attributeTo(key, NB_SLAVES);
+    private String getPartitions() {
+        StringBuilder partitions = new StringBuilder(Integer.toString(this.id)) ;
+        if (owners != null) {
+            for (int i = 0; i < NB_SLAVES; i++) {
+                if (i != this.id && owners[i] == this.id) {
+                    partitions.append(',').append(i) ;
+                }
+            }
+        }
+        return partitions.toString() ;
+    }
+
+    /**
+     * Get the number of entries produced by the map for each partition of the first MapReduce,
+     * sent to the master with {@link SynchronizationMessage#READY_TO_SHUFFLE} to report the imbalance
+     * @return the numbers of entries, indexed by the id of the machines
+     */
+    private long[] getPartitionEntries() {
+        long[] entries = new long[NB_SLAVES] ;
+        for (int i = 0; i < NB_SLAVES; i++) {
+            entries[i] = statistics.get(Statistics.partitionEntries(i)) ;
+        }
+        return entries ;
     }
 
     ///////////////////////////// STEPS OF MAPREDUCE /////////////////////////////
@@ -287,7 +542,23 @@ public class Slave extends Thread {
      * @throws CommunicationException
      */
     private void nextStep(SynchronizationMessage endMessage, SynchronizationMessage continueMessage) throws CommunicationException {
+        nextStep(endMessage, null, continueMessage);
+    }
+
+    /**
+     * <strong>Blocking</strong> method to send the message to master to signal the end of the step,
+     * followed by a report of the step, and wait for the message to continue
+     * @param endMessage the message to send to master to signal the end of the step
+     * @param report the object sent after the message, or null
+     * @param continueMessage the message to receive from master to signal the continuation of the step
+     * @throws CommunicationException
+     */
+    private void nextStep(SynchronizationMessage endMessage, Serializable report, SynchronizationMessage continueMessage)
+            throws CommunicationException {
         serverForMaster.sendObject(endMessage);
+        if (report != null) {
+            serverForMaster.sendObject(report);
+        }
         Object message = serverForMaster.receiveObject();
         if (message != continueMessage) {
             System.err.println("Error : expected "+continueMessage+" message, received " + message);
@@ -295,91 +566,375 @@ public class Slave extends Thread {
         }
     }
 
-    public HashMap<String, Integer> map(String portion) {
-        System.out.println("Slave " + id + " is mapping all portions.") ;
-        HashMap<String, Integer> result = new HashMap<String, Integer>();
-        String[] words = portion.split("[\\p{Punct}|\\s]+");
-        for (String word : words) {
-            word = word.toLowerCase();
-            Integer value = result.getOrDefault(word, 0);
-            result.put(word, value + 1);
+    /**
+     * Map function : count the occurences of the words of the splits,
+     * read chunk by chunk and split into words directly on their bytes.
+     *
+     * The chunks are mapped in parallel by {@link Config#MAP_THREADS} threads. Each thread counts
+     * the words in one batch per machine, and a batch is given to the thread which sends it
+     * as soon as it is full, so the shuffle starts while mapping. With a memory budget
+     * ({@link Config#MAP_MEMORY}), the words of this slave are spilled to the disk by the threads exceeding
+     * their share, and the spilled runs are kept for the reduce.
+     * @param portion the reader of the splits of this slave
+     * @param senders the threads sending the batches to the other machines
+     * @return the words this slave is responsible for and their occurences, in the shards of the reduce,
+     * without the words spilled
+     * @throws IOException if a split can't be read
+     */
+    public ShardedWordCounts map(SplitReader portion, SlaveClientThread<WordCounts>[] senders) throws IOException {
+        System.out.println("Slave " + id + " is mapping all portions with " + Config.MAP_THREADS + " threads.") ;
+
+        MapTask task = new MapTask(this.id, partitioner, senders, null, Config.MAP_MEMORY, statistics);
+        portion.forEachChunk(task::map);
+
+        // Wait for all the map threads, which send their last batches, before ending the streams
+        task.end();
+        task.commit(null, statistics);
+        closeSenders(senders);
+
+        // Merge the partitions of this slave, the runs spilled to the disk being merged by the reduce
+        spilledRuns.addAll(task.getRuns());
+        return task.getOwnPartition();
+    }
+
+    /**
+     * Map function with the speculative splits or the fault tolerance : the splits given by the master are mapped
+     * one after the other, each as a {@link MapTask} whose batches are held until the master commits it, since
+     * the same split can be mapped by another slave at the same time, or again if this slave is lost.
+     * The progress of each split is reported to the master, which can tell to stop a split whose other copy
+     * is already committed.
+     *
+     * The batches of a split are held on the disk, in a {@link MapOutputStore} of the split. When the split
+     * is committed, its frames are read back one by one and given to the senders before the next split is mapped,
+     * their bounded queues ({@link Config#SHUFFLE_IN_FLIGHT}) limiting the frames in memory, or its files are kept
+     * until the shuffle with the fault tolerance. With a memory budget ({@link Config#MAP_MEMORY}), it applies
+     * to each split, and the words of this slave of each committed split are spilled to the disk, to be merged
+     * by the reduce.
+     * @param encoder the encoder of the batches held
+     * @param senders where to send the frames of the committed splits, null to keep them in the outputs
+     * @param outputs where to keep the files of the committed splits until the shuffle, null to send them
+     * @return the words this slave is responsible for and their occurences, in the shards of the reduce,
+     * without the words spilled
+     * @throws IOException if a split can't be read or the communication with the master fails
+     */
+    public ShardedWordCounts mapSplits(ShuffleCodec.Encoder<WordCounts> encoder, BatchSender<ByteBuffer>[] senders,
+            MapOutputStore outputs) throws IOException {
+        System.out.println("Slave " + id + " is mapping the splits one by one with " + Config.MAP_THREADS + " threads.") ;
+
+        ShardedWordCounts result = new ShardedWordCounts(Config.REDUCE_THREADS, 0);
+        Integer split;
+        while ((split = nextSplit()) != null) {
+            MapOutputStore held = new MapOutputStore(this.id, NB_SLAVES, encoder);
+            MapTask task = new MapTask(this.id, partitioner, null, held, Config.MAP_MEMORY, statistics);
+            if (mapSplit(split, task)) {
+                task.commit(senders, statistics);
+                if (outputs != null) {
+                    outputs.addAll(held);
+                }
+                spilledRuns.addAll(task.getRuns());
+                if (Config.MAP_MEMORY > 0) {
+                    spilledRuns.spill(task.getOwnPartition(), new File(Config.SPILL_DIRECTORY),
+                        "map-" + id + "-", statistics);
+                } else {
+                    result.addAll(task.getOwnPartition());
+                }
+            } else {
+                System.out.println("Slave " + id + " discards the split " + split + ".") ;
+                task.discard();
+            }
         }
         return result;
     }
 
-    // Version with List<String>
-    ///////////////////////////////////////////////////////////////////////////////////////
-    // public HashMap<String, Integer> map(String[] portions) {
-    //     System.out.println("Slave " + id + " is mapping all portions.") ;
-    //     HashMap<String, Integer> result = new HashMap<String, Integer>();
-    //     for (String portion : portions) {
-    //         // HashMap<String, Integer> mapResult = map(portion) ;
-    //         // result.putAll(mapResult) ;
-    //         String[] words = portion.split("[\\p{Punct}|\\s]+");
-    //         for (String word : words) {
-    //             word = word.toLowerCase();
-    //             Integer value = result.getOrDefault(word, 0);
-    //             result.put(word, value + 1);
-    //         }
-    //     }
-    //     return result;
-    // }
+    /**
+     * Map one split, reporting its progress to the master
+     * @param split the number of the split
+     * @param task the task mapping the split
+     * @return true if the output of the task is committed, false if it is discarded
+     * @throws IOException if the split can't be read or the communication with the master fails
+     */
+    private boolean mapSplit(int split, MapTask task) throws IOException {
+        String filename = getSplitFilename(split) ;
+        long size = Math.max(1, new File(filename).length()) ;
+        SplitReader reader = new SplitReader(new String[] { filename }) ;
+        IOException[] failure = new IOException[1] ;
+        boolean[] discarded = new boolean[1] ;
+        long[] read = new long[1] ;
+        long[] lastReport = { System.currentTimeMillis() } ;
+        reader.forEachChunk(chunk -> {
+            read[0] += chunk.remaining() ;
+            task.map(chunk) ;
+            long now = System.currentTimeMillis() ;
+            if (now - lastReport[0] >= PROGRESS_INTERVAL) {
+                lastReport[0] = now ;
+                try {
+                    if (reportProgress(new SplitProgress(split, (double) read[0] / size, false))
+                            == SynchronizationMessage.DISCARD_SPLIT) {
+                        discarded[0] = true ;
+                        reader.stop() ;
+                    }
+                } catch (IOException e) {
+                    failure[0] = e ;
+                    reader.stop() ;
+                }
+            }
+        }) ;
+        task.end() ;
+        if (failure[0] != null) {
+            throw failure[0] ;
+        }
+        return !discarded[0] && reportProgress(new SplitProgress(split, 1, true)) == SynchronizationMessage.COMMIT_SPLIT ;
+    }
 
-    @SuppressWarnings("unchecked")
     /**
-     * Prepare the packets to send to each machine
-     * @param pairs the pairs to send
-     * @return an array of list of hashmaps to send to the machines
+     * <strong>Blocking</strong> method to send the progress of a split to the master and get its answer
+     * @param progress the progress of the split
+     * @return {@link SynchronizationMessage#CONTINUE_SPLIT}, {@link SynchronizationMessage#COMMIT_SPLIT}
+     * or {@link SynchronizationMessage#DISCARD_SPLIT}
+     * @throws IOException if the communication with the master fails
      */
-    public HashMap<String, Integer>[] prepareForShuffle(HashMap<String, Integer> pairs) {
-        HashMap<String, Integer>[] result = new HashMap[NB_SLAVES];
-        for (int i = 0; i < NB_SLAVES; i++) {
-            result[i] = new HashMap<String, Integer>();
+    private SynchronizationMessage reportProgress(SplitProgress progress) throws IOException {
+        try {
+            serverForMaster.sendObject(progress) ;
+            Object message = serverForMaster.receiveObject() ;
+            if (message != SynchronizationMessage.CONTINUE_SPLIT && message != SynchronizationMessage.COMMIT_SPLIT
+                    && message != SynchronizationMessage.DISCARD_SPLIT) {
+                throw new CommunicationException("Received an unexpected message instead of an answer to the "
+                    + progress + " : " + message) ;
+            }
+            return (SynchronizationMessage) message ;
+        } catch (CommunicationException e) {
+            throw new IOException("Can't report the progress to the master", e) ;
         }
-        for (Entry<String,Integer> pair : pairs.entrySet()) {
-            int machineIndex = attributeMachine(pair.getKey());
-            result[machineIndex].put(pair.getKey(), pair.getValue());
+    }
+
+    /**
+     * End the streams of the batches sent to the other machines
+     * @param senders the threads sending the batches to the other machines
+     */
+    private void closeSenders(SlaveClientThread<?>[] senders) {
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (senders[i] != null) {
+                senders[i].close();
+            }
         }
-        return result;
     }
 
-    @SuppressWarnings("unchecked")
     /**
-     * Send the packets to each machine to reduce them
-     * @param packets the packets to shuffle
+     * Wait for the end of the shuffle : the batches are sent during the map,
+     * so only the end of the communications with the other machines is waited for
+     * @param ownPartition the words this slave is responsible for, counted during the map
+     * @param reception the reception of the batches of the other machines
+     * @param senders the threads sending the batches to the other machines
+     * @return the words received from each machine
      */
-    public HashMap<String,Integer>[] shuffle(HashMap<String, Integer> pairs) throws CommunicationException{
+    public <T> T[] shuffle(T ownPartition, ShuffleEndpoint.Reception<T> reception,
+            SlaveClientThread<?>[] senders) throws CommunicationException{
 
-        // listen to other slaves to receive the packets to reduce
+        // Synchronization : wait for the master to collect all READY_TO_SHUFFLE messages,
+        // with the entries of each partition, to launch the shuffle phase
 
-        SlaveServerThread<String, Integer>[] serverThreads = new SlaveServerThread[NB_SLAVES];
-        for (int i = 0  ; i < NB_SLAVES ; i++) {
-            if (i != this.id) {
-                serverThreads[i] = new SlaveServerThread<>(FIRST_PORT + i);
-                serverThreads[i].start();
+        nextStep(SynchronizationMessage.READY_TO_SHUFFLE, getPartitionEntries(), SynchronizationMessage.SHUFFLE);
+
+        return collect(ownPartition, reception, senders);
+    }
+
+    /**
+     * Shuffle with the fault tolerance : once the map is over, the master gives the owner of each partition
+     * among the slaves still alive, and the output of the map kept on the disk is sent to the owners.
+     * The partition of a slave lost during the map is adopted by another slave, which receives it
+     * from all the others (and from itself), the splits of the lost slave having been mapped again
+     * @param ownPartition the words this slave is responsible for, counted during the map
+     * @param outputs the output of the map for the other machines
+     * @return the words received from each machine, null for the slaves lost
+     * @throws CommunicationException if the master doesn't send the owners
+     * @throws IOException if the output of the map can't be read
+     */
+    public WordCounts[] shuffleFromDisk(WordCounts ownPartition, MapOutputStore outputs)
+            throws CommunicationException, IOException {
+
+        nextStep(SynchronizationMessage.READY_TO_SHUFFLE, getPartitionEntries(), SynchronizationMessage.SHUFFLE);
+        Object o = serverForMaster.receiveObject();
+        if (!(o instanceof int[])) {
+            throw new CommunicationException("Unexpected object received from master instead of the owners : " + o);
+        }
+        int[] owners = (int[]) o;
+        setOwners(owners);
+
+        // the other slaves may start sending before the reception is expected : their frames are kept
+
+        ShuffleEndpoint.Reception<WordCounts> reception = endpoint.expect(ShuffleCodec.PHASE_COUNT,
+            newTables(new WordCounts[NB_SLAVES], Slave::newReceivedTable), ShuffleCodec::decodeCounts);
+        SlaveClientThread<ByteBuffer>[] senders = startSenders(frame -> frame, ShuffleCodec.PHASE_COUNT);
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (i == this.id) {
+                continue;
+            }
+            int owner = owners[i];
+            if (owner == this.id) {
+                System.out.println("Slave " + id + " adopts the partition of the lost slave " + i
+                    + " (" + outputs.getNbBytes(i) + " bytes).") ;
+                outputs.forEachFrame(i, frame -> ShuffleCodec.decodeCounts(frame, ownPartition));
+            } else {
+                if (owner != i) {
+                    System.out.println("Slave " + id + " sends the partition of the lost slave " + i
+                        + " (" + outputs.getNbBytes(i) + " bytes) to the slave " + owner + ".") ;
+                }
+                outputs.forEachFrame(i, senders[owner]::send);
             }
         }
+        closeSenders(senders);
 
-        // Synchronization : wait for the master to collect
-        // all READY_TO_SHUFFLE messages to launch the shuffle phase
+        return collect(ownPartition, reception, senders);
+    }
+
+    /**
+     * Take into account the slaves lost during the map, from the owners of the partitions
+     * @param owners the id of the slave receiving each partition, which is the slave itself if it is alive
+     */
+    private void setOwners(int[] owners) {
+        this.owners = owners;
+        int nbAlive = 0;
+        for (int i = 0; i < NB_SLAVES; i++) {
+            alive[i] = owners[i] == i;
+            if (alive[i]) {
+                nbAlive++;
+            }
+        }
+        aliveSlaves = new int[nbAlive];
+        for (int i = 0, k = 0; i < NB_SLAVES; i++) {
+            if (alive[i]) {
+                aliveSlaves[k++] = i;
+            }
+        }
+    }
+
+    /**
+     * Wait for the end of the shuffle while reducing : the batches of the other machines
+     * are merged by the merge thread as they arrive, and the partition of this slave
+     * is merged as soon as the map is over, so there is no reduce step afterwards but the merge
+     * of the runs spilled by the map
+     * @param ownPartition the words this slave is responsible for, counted during the map
+     * @param reception the reception of the batches of the other machines, handed to the merge thread
+     * @param senders the threads sending the batches to the other machines
+     * @param merger the merge thread
+     * @return the words of this slave with their occurences according to all the machines
+     */
+    public WordCounts shuffleAndReduce(WordCounts ownPartition, ShuffleEndpoint.Reception<WordCounts> reception,
+            SlaveClientThread<?>[] senders, MergeThread merger) throws CommunicationException, IOException {
+
+        merger.merge(ownPartition);
+
+        // Synchronization : wait for the master to collect all READY_TO_SHUFFLE messages,
+        // with the entries of each partition, to launch the shuffle phase
+
+        nextStep(SynchronizationMessage.READY_TO_SHUFFLE, getPartitionEntries(), SynchronizationMessage.SHUFFLE);
+
+        collect(ownPartition, reception, senders);
+        merger.close();
+        try {
+            merger.join();
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while waiting for the merge thread to join");
+            e.printStackTrace();
+            System.exit(1);
+        }
 
-        nextStep(SynchronizationMessage.READY_TO_SHUFFLE, SynchronizationMessage.SHUFFLE);
+        // the runs spilled by the map are merged once all the batches are
+        WordCounts result = merger.getResult();
+        if (!spilledRuns.isEmpty()) {
+            System.out.println("Slave " + id + " merges " + spilledRuns.size() + " spilled runs.") ;
+            SortedRun.merge(spilledRuns.getAll(), result, statistics);
+            spilledRuns.clear();
+        }
+        return result;
+    }
 
-        HashMap<String, Integer>[] packets = prepareForShuffle(pairs) ;
+    ///////////////////////////// THREADS OF THE SHUFFLES /////////////////////////////
 
-        // Send the packets to the machines using client threads
+    /**
+     * Get the port of the shuffle endpoint of a slave
+     * @param slave the id of the slave
+     * @return the port
+     */
+    private int getShufflePort(int slave) {
+        return FIRST_PORT + NB_SLAVES + slave;
+    }
 
-        Thread[] threads = new Thread[NB_SLAVES];
+    /**
+     * Get the ports of the shuffle endpoints of all the slaves
+     * @return the ports, indexed by the id of the slaves
+     */
+    private int[] getShufflePorts() {
+        int[] ports = new int[NB_SLAVES];
         for (int i = 0; i < NB_SLAVES; i++) {
-            if (i != this.id) {
-                threads[i] = new SlaveClientThread<String, Integer>(MACHINE_NAMES[i], FIRST_PORT+this.id, packets[i]);
-                threads[i].start();
+            ports[i] = getShufflePort(i);
+        }
+        return ports;
+    }
+
+    /**
+     * Create the tables where to add the batches received from the other slaves
+     * @param tables the array of the tables, one per slave
+     * @param creator the creator of a table
+     * @return the array, with null for this slave and the slaves lost
+     */
+    private <T> T[] newTables(T[] tables, Supplier<T> creator) {
+        for (int i = 0; i < NB_SLAVES; i++) {
+            tables[i] = i == this.id || !alive[i] ? null : creator.get();
+        }
+        return tables;
+    }
+
+    /**
+     * Create a table where to add the words received from another slave, split in the shards of the reduce :
+     * each word is routed to its shard once, when it is received
+     * @return a new table
+     */
+    private static WordCounts newReceivedTable() {
+        return new ShardedWordCounts(Config.REDUCE_THREADS, 0);
+    }
+
+    /**
+     * Create the array of the lists of frames received from the other slaves, without the lists
+     * @return the array, one list per slave
+     */
+    @SuppressWarnings("unchecked")
+    private List<ByteBuffer>[] newFrameLists() {
+        return new List[NB_SLAVES];
+    }
+
+    /**
+     * Start the threads which send batches to the other slaves
+     * @param encoder the encoder of the batches
+     * @param phase the phase of the shuffle
+     * @return the threads, null for this slave and the slaves lost
+     */
+    @SuppressWarnings("unchecked")
+    private <T> SlaveClientThread<T>[] startSenders(ShuffleCodec.Encoder<T> encoder, byte phase) {
+        SlaveClientThread<T>[] senders = new SlaveClientThread[NB_SLAVES];
+        for (int i = 0; i < NB_SLAVES; i++) {
+            if (i != this.id && alive[i]) {
+                senders[i] = new SlaveClientThread<>(mesh, i, encoder,
+                    codec.encodeEndOfStream(phase), Config.SHUFFLE_IN_FLIGHT, statistics);
+                senders[i].start();
             }
         }
+        return senders;
+    }
+
+    /**
+     * Wait for the end of the communications of a shuffle and gather the data received
+     * @param ownPartition the data this slave kept for itself
+     * @param reception the reception of the batches of the other machines
+     * @param senders the threads sending the batches to the other machines
+     * @return the data of each machine
+     */
+    private <T> T[] collect(T ownPartition, ShuffleEndpoint.Reception<T> reception, SlaveClientThread<?>[] senders) {
 
         // Wait for all the client threads to finish before continuing
-        
-        for (Thread t : threads) {
+
+        for (Thread t : senders) {
             try {
                 if (t != null) t.join();
             } catch (InterruptedException e) {
@@ -390,238 +945,362 @@ public class Slave extends Thread {
         }
         System.out.println("All client threads finished");
 
-        // Wait for all the server threads to finish before continuing
-        // and gather the packets received from the other machines
+        // Wait for the end of the streams of all the other machines
+        // and gather the packets received
 
-        HashMap<String,Integer>[] result = new HashMap[NB_SLAVES];
+        T[] result = null;
+        try {
+            result = reception.await();
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while waiting for the other machines");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        result[this.id] = ownPartition;
 
-        for (int i = 0; i < NB_SLAVES; i++) {
-            try {
-                if (i == this.id) {
-                    result[i] = packets[i];
-                } else {
-                    serverThreads[i].join();
-                    result[i] = (HashMap<String,Integer>) serverThreads[i].getData();
+        System.out.println("All packets received");
+
+        return result;
+    }
+
+    /**
+     * Reduce the packets received from the other machines into the partition of this slave, shard by shard :
+     * each thread adds its shard of the packets received, then merges the runs spilled by the map for its shard
+     * @param shuffledMaps the packets to reduce, with the partition of this slave at its index
+     * @return WordCounts of the words with their occurence according to all the packets received
+     */
+    public WordCounts reduce(WordCounts[] shuffledMaps) throws CommunicationException, IOException {
+
+        nextStep(SynchronizationMessage.READY_TO_REDUCE, SynchronizationMessage.REDUCE);
+
+        // The partition of this slave, the packets received and the spilled runs are split in the same shards,
+        // so the partition of this slave is the result, and each word is read once by a single thread
+
+        ShardedWordCounts result = (ShardedWordCounts) shuffledMaps[this.id];
+        if (!spilledRuns.isEmpty()) {
+            System.out.println("Slave " + id + " merges " + spilledRuns.size() + " spilled runs.") ;
+        }
+        Utils.runInParallel(result.getNbShards(), s -> {
+            WordCounts shard = result.getShard(s);
+            for (int i = 0; i < shuffledMaps.length; i++) {
+                if (i != this.id && shuffledMaps[i] != null) {
+                    shard.addAll(((ShardedWordCounts) shuffledMaps[i]).getShard(s));
                 }
-            } catch (InterruptedException e) {
-                System.err.println("Interrupted while waiting for a server thread to join");
-                e.printStackTrace();
-                System.exit(1);
             }
-        }
+            try {
+                SortedRun.merge(spilledRuns.getShard(s), shard, statistics);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't merge the runs spilled to " + Config.SPILL_DIRECTORY, e);
+            }
+        });
+        spilledRuns.clear();
 
-        System.out.println("All server threads finished");
+        return result;
+    }
 
+    /**
+     * Drop the reduced words which don't pass the filters of the configuration,
+     * so that the sort only moves the words of the output
+     * @param reduced the reduced words
+     * @return the words kept, or the reduced words themselves without filters
+     * @throws IOException if the stop words can't be read
+     */
+    private WordCounts filter(WordCounts reduced) throws IOException {
+        WordFilter filter = new WordFilter();
+        if (!filter.isActive()) {
+            return reduced;
+        }
+        WordCounts result = filter.apply(reduced, statistics);
+        System.out.println("Slave " + id + " keeps " + result.size() + " words of " + reduced.size()
+            + " after the filters.") ;
         return result;
     }
 
     /**
-     * Reduce the packets received from the other machines
-     * @param shuffledMaps the packets to reduce
-     * @return Hashmap of the words with their occurence according to all the packets received
+     * Reduce the sorted batches received from the other machines and the runs spilled by the map
+     * with a k-way merge : the batches and the runs are read together in the order of the words,
+     * so each word received is added once to the words of this slave
+     * @param ownPartition the words this slave kept for itself, counted during the map
+     * @param sortedBatches the sorted frames received from each machine
+     * @return WordCounts of the words with their occurence according to all the packets received
      */
-    public HashMap<String,Integer> reduce(HashMap<String,Integer>[] shuffledMaps) throws CommunicationException{
+    public WordCounts reduceSorted(WordCounts ownPartition, List<ByteBuffer>[] sortedBatches)
+            throws CommunicationException, IOException {
 
         nextStep(SynchronizationMessage.READY_TO_REDUCE, SynchronizationMessage.REDUCE);
 
-        HashMap<String,Integer> result = new HashMap<String,Integer>();
-        for (HashMap<String,Integer> map : shuffledMaps) {
-            for (Entry<String,Integer> pair : map.entrySet()) {
-                if (pair.getValue() == null) {
-                    System.out.println("Null value for "+pair.getKey());
-                    continue;
-                } 
-                Integer value = result.getOrDefault(pair.getKey(), 0);
-                result.put(pair.getKey(), value + pair.getValue());
+        List<SortedRun.Source> sources = new ArrayList<SortedRun.Source>();
+        for (List<ByteBuffer> frames : sortedBatches) {
+            for (ByteBuffer frame : frames) {
+                sources.add(ShuffleCodec.sortedCounts(frame));
             }
         }
-        
-        return result;
+        System.out.println("Slave " + id + " merges " + sources.size() + " sorted batches and "
+            + spilledRuns.size() + " spilled runs.") ;
+
+        // the runs spilled by the map are read with the batches, without building their table first
+        List<SortedRun.Source> runs = SortedRun.open(spilledRuns.getAll(), statistics);
+        spilledRuns.clear();
+        sources.addAll(runs);
+        try {
+            SortedRun.mergeSources(sources, ownPartition);
+        } finally {
+            for (SortedRun.Source run : runs) {
+                run.close();
+            }
+        }
+        return ownPartition;
+    }
+
+    ///////////////////////////// TOP K /////////////////////////////
+
+    /**
+     * Select the {@link Config#TOP_K} most frequent words of the reduced result, shard by shard
+     * in parallel if the result is sharded, and send them to the master
+     * instead of the second MapReduce
+     * @param map WordCounts, the reduced result
+     * @throws CommunicationException
+     */
+    public void topK(WordCounts map) throws CommunicationException {
+
+        nextStep(SynchronizationMessage.REDUCE_END, SynchronizationMessage.TOP_K);
+
+        TopWords top;
+        if (map instanceof ShardedWordCounts) {
+            ShardedWordCounts sharded = (ShardedWordCounts) map;
+            TopWords[] parts = new TopWords[sharded.getNbShards()];
+            Utils.runInParallel(parts.length, s -> parts[s] = TopWords.of(sharded.getShard(s), Config.TOP_K));
+            top = parts[0];
+            for (int s = 1; s < parts.length; s++) {
+                top = top.merge(parts[s]);
+            }
+        } else {
+            top = TopWords.of(map, Config.TOP_K);
+        }
+        System.out.println("My top : " + top);
+        serverForMaster.sendObject(top);
     }
 
     ///////////////////////////// STEPS OF SECOND MAPREDUCE /////////////////////////////
 
     /**
-     * Map function : reverse keys and values of the reduced result
-     * @param map HashMap<String, Integer>, the reduced result
-     * @return a HashMap containing occurences as keys and words as values
+     * Map function : reverse keys and values of the reduced result,
+     * shard by shard in parallel if the result is sharded
+     * @param map WordCounts, the reduced result
+     * @return the words grouped by their number of occurences
      * @throws CommunicationException
      */
-    public HashMap<Integer, List<String>> map2(HashMap<String, Integer> map) throws CommunicationException {
+    public FrequencyBuckets map2(WordCounts map) throws CommunicationException {
 
         nextStep(SynchronizationMessage.REDUCE_END, SynchronizationMessage.MAP);
 
-        HashMap<Integer, List<String>> result = new HashMap<Integer, List<String>>();
-        for (Entry<String,Integer> pair : map.entrySet()) {
-            List<String> value = result.getOrDefault(pair.getValue(), new ArrayList<String>());
-            value.add(pair.getKey());
-            result.put(pair.getValue(), value);
-            // OR : result.computeIfAbsent(pair.getValue(), k -> new ArrayList<String>()).add(pair.getKey());
+        if (!(map instanceof ShardedWordCounts)) {
+            return reverse(map);
+        }
+        ShardedWordCounts sharded = (ShardedWordCounts) map;
+        FrequencyBuckets[] parts = new FrequencyBuckets[sharded.getNbShards()];
+        Utils.runInParallel(parts.length, s -> parts[s] = reverse(sharded.getShard(s)));
+
+        FrequencyBuckets result = parts[0];
+        for (int s = 1; s < parts.length; s++) {
+            result.addAll(parts[s]);
+        }
+        return result;
+    }
+
+    private static FrequencyBuckets reverse(WordCounts map) {
+        FrequencyBuckets result = new FrequencyBuckets();
+        WordCursor pair = map.cursor();
+        while (pair.next()) {
+            result.add(pair.count(), pair.wordBytes(), 0, pair.wordLength());
         }
         return result;
     }
 
     /**
-     * <strong>Blocking</strong> method to send this slave's range to the master
-     * and receive the global range
-     * @param range the range of this slave
-     * @return the global range
+     * <strong>Blocking</strong> method to send this slave's histogram to the master
+     * and receive the split points computed from the histograms of all the slaves
+     * @param histogram the number of words for each number of occurences on this slave
+     * @return the split points
      * @throws CommunicationException
      */
-    public Range coordinateRanges(Range range) throws CommunicationException {
+    public SplitPoints coordinateSplitPoints(Histogram histogram) throws CommunicationException {
         
-        serverForMaster.sendObject(range);
+        serverForMaster.sendObject(histogram);
         Object o = serverForMaster.receiveObject();
-        if (o instanceof Range) {
-            return (Range) o;
+        if (o instanceof SplitPoints) {
+            return (SplitPoints) o;
         } else {
             throw new CommunicationException("Unexpected object received from master : "+o);
         }
     }
 
-    @SuppressWarnings("unchecked")
     /**
-     * Prepare the packets to send to each machine
-     * @param pairs the pairs to send
-     * @return an array of list of hashmaps to send to the machines
+     * Prepare the packets to send to each machine. The words of an occurence
+     * are split between the machines if the split points fall inside it
+     * @param pairs the words to send, grouped by occurences
+     * @param splitPoints the split points of the words between the machines
+     * @return an array of the buckets to send to the machines
      */
-    public HashMap<Integer, List<String>>[] prepareForShuffle2(HashMap<Integer, List<String>> pairs, Range range) {
-        HashMap<Integer, List<String>>[] result = new HashMap[NB_SLAVES];
+    public FrequencyBuckets[] prepareForShuffle2(FrequencyBuckets pairs, SplitPoints splitPoints) {
+        FrequencyBuckets[] result = new FrequencyBuckets[NB_SLAVES];
         for (int i = 0; i < NB_SLAVES; i++) {
-            result[i] = new HashMap<Integer, List<String>>();
+            result[i] = new FrequencyBuckets();
         }
-        for (Entry<Integer,List<String>> pair : pairs.entrySet()) {
-            int machineIndex = attributeMachine2(pair.getKey(), range);
-            result[machineIndex].put(pair.getKey(), pair.getValue());
+        FrequencyBuckets.BucketCursor pair = pairs.cursor();
+        while (pair.next()) {
+            int count = pair.count();
+            if (splitPoints.isWhole(count)) {
+                result[attributeMachine2(count, 0, splitPoints)].addAll(count, pair.bucket());
+            } else {
+                FrequencyBuckets.WordIterator word = pair.bucket().words();
+                while (word.next()) {
+                    int machineIndex = attributeMachine2(count, SplitPoints.position(word.hash()), splitPoints);
+                    result[machineIndex].add(count, word.bytes(), word.offset(), word.length());
+                }
+            }
         }
         return result;
     }
 
-    private Range globalRange;
+    private SplitPoints splitPoints;
 
-    @SuppressWarnings("unchecked")
     /**
      * Send the packets to each machine to reduce them
-     * @param packets the packets to shuffle
+     * @param pairs the words of this slave, grouped by occurences
      */
-    public HashMap<Integer,List<String>>[] shuffle2(HashMap<Integer, List<String>> pairs) throws CommunicationException{
+    public FrequencyBuckets[] shuffle2(FrequencyBuckets pairs) throws CommunicationException{
 
         nextStep(SynchronizationMessage.READY_TO_COORDINATE, SynchronizationMessage.COORDINATE);
 
         // listen to other slaves to receive the packets to reduce
 
-        SlaveServerThread<Integer,List<String>>[] serverThreads = new SlaveServerThread[NB_SLAVES];
-        for (int i = 0  ; i < NB_SLAVES ; i++) {
-            if (i != this.id) {
-                serverThreads[i] = new SlaveServerThread<>(FIRST_PORT + i);
-                serverThreads[i].start();
-            }
-        }
+        ShuffleEndpoint.Reception<FrequencyBuckets> reception = endpoint.expect(ShuffleCodec.PHASE_SORT,
+            newTables(new FrequencyBuckets[NB_SLAVES], FrequencyBuckets::new), ShuffleCodec::decodeBuckets);
 
         // Synchronization : wait for the master to collect
-        // all the ranges and send the global range
+        // all the histograms and send the split points
 
-        Range myMapRange = Range.computeFromSet(pairs.keySet());
-        System.out.println("My range : "+myMapRange);
-        globalRange = coordinateRanges(myMapRange);
+        Histogram histogram = new Histogram();
+        FrequencyBuckets.BucketCursor pair = pairs.cursor();
+        while (pair.next()) {
+            histogram.add(pair.count(), pair.bucket().getNbWords());
+        }
+        System.out.println("My histogram : "+histogram);
+        splitPoints = coordinateSplitPoints(histogram);
 
-        HashMap<Integer, List<String>>[] packets = prepareForShuffle2(pairs, globalRange) ;
+        FrequencyBuckets[] packets = prepareForShuffle2(pairs, splitPoints) ;
 
-        // Send the packets to the machines using client threads
+        // Send the packets to the machines by batches using client threads
 
-        Thread[] threads = new Thread[NB_SLAVES];
+        SlaveClientThread<FrequencyBuckets>[] senders = startSenders(codec::encodeBuckets,
+            ShuffleCodec.PHASE_SORT);
         for (int i = 0; i < NB_SLAVES; i++) {
-            if (i != this.id) {
-                threads[i] = new SlaveClientThread<Integer, List<String>>(MACHINE_NAMES[i], FIRST_PORT+this.id, packets[i]);
-                threads[i].start();
+            if (senders[i] != null) {
+                sendByBatches(packets[i], senders[i]);
+                senders[i].close();
             }
         }
 
-        // Wait for all the client threads to finish before continuing
-        
-        for (Thread t : threads) {
-            try {
-                if (t != null) t.join();
-            } catch (InterruptedException e) {
-                System.err.println("Interrupted while waiting for a client thread to join");
-                e.printStackTrace();
-                System.exit(0);
-            }
-        }
-        System.out.println("All client threads finished");
-
-        // Wait for all the server threads to finish before continuing
-        // and gather the packets received from the other machines
-
-        HashMap<Integer,List<String>>[] result = new HashMap[NB_SLAVES];
+        return collect(packets[this.id], reception, senders);
+    }
 
-        for (int i = 0; i < NB_SLAVES; i++) {
-            try {
-                if (i == this.id) {
-                    result[i] = packets[i];
-                } else {
-                    serverThreads[i].join();
-                    result[i] = (HashMap<Integer,List<String>>) serverThreads[i].getData();
+    /**
+     * Send the occurences of a packet with their words by batches of at most
+     * {@link Config#SHUFFLE_BATCH_SIZE} words, the words of an occurence being split if needed
+     * @param packet the packet to send
+     * @param sender the thread sending the batches to the machine
+     */
+    private void sendByBatches(FrequencyBuckets packet, SlaveClientThread<FrequencyBuckets> sender) {
+        FrequencyBuckets batch = new FrequencyBuckets();
+        FrequencyBuckets.BucketCursor pair = packet.cursor();
+        while (pair.next()) {
+            FrequencyBuckets.Bucket bucket = pair.bucket();
+            if (batch.getNbWords() + bucket.getNbWords() <= Config.SHUFFLE_BATCH_SIZE) {
+                batch.addAll(pair.count(), bucket);
+            } else {
+                FrequencyBuckets.WordIterator word = bucket.words();
+                while (word.next()) {
+                    batch.add(pair.count(), word.bytes(), word.offset(), word.length());
+                    if (batch.getNbWords() == Config.SHUFFLE_BATCH_SIZE) {
+                        sender.send(batch);
+                        batch = new FrequencyBuckets();
+                    }
                 }
-            } catch (InterruptedException e) {
-                System.err.println("Interrupted while waiting for a server thread to join");
-                e.printStackTrace();
-                System.exit(1);
+            }
+            if (batch.getNbWords() == Config.SHUFFLE_BATCH_SIZE) {
+                sender.send(batch);
+                batch = new FrequencyBuckets();
             }
         }
-
-        System.out.println("All server threads finished");
-
-        return result;
+        if (!batch.isEmpty()) {
+            sender.send(batch);
+        }
     }
 
     /**
      * Reduce the packets received from the other machines
      * @param shuffledMaps the packets to reduce
-     * @return Hashmap of the words with their occurence according to all the packets received
+     * @return the words grouped by occurences according to all the packets received
      */
-    public HashMap<Integer, List<String>> reduce2(HashMap<Integer, List<String>>[] shuffledMaps) throws CommunicationException{
+    public FrequencyBuckets reduce2(FrequencyBuckets[] shuffledMaps) throws CommunicationException{
 
         nextStep(SynchronizationMessage.READY_TO_REDUCE_2, SynchronizationMessage.REDUCE_2);
 
-        HashMap<Integer, List<String>> result = new HashMap<Integer, List<String>>();
-        for (HashMap<Integer, List<String>> map : shuffledMaps) {
-            for (Entry<Integer, List<String>> pair : map.entrySet()) {
-                if (pair.getValue() == null) {
-                    System.out.println("Null value for "+pair.getKey());
+        // Each thread merges the occurences of its shard from all the packets
+
+        int nbShards = Config.REDUCE_THREADS;
+        FrequencyBuckets[] parts = new FrequencyBuckets[nbShards];
+        Utils.runInParallel(nbShards, s -> {
+            FrequencyBuckets part = new FrequencyBuckets();
+            for (FrequencyBuckets map : shuffledMaps) {
+                if (map == null) {
                     continue;
-                } 
-                List<String> value = result.getOrDefault(pair.getKey(), new ArrayList<String>());
-                value.addAll(pair.getValue());
-                result.put(pair.getKey(), value);
+                }
+                FrequencyBuckets.BucketCursor pair = map.cursor();
+                while (pair.next()) {
+                    if (Math.floorMod(pair.count(), nbShards) == s) {
+                        part.addAll(pair.count(), pair.bucket());
+                    }
+                }
             }
+            parts[s] = part;
+        });
+
+        // The shards have distinct occurences
+        FrequencyBuckets result = parts[0];
+        for (int s = 1; s < nbShards; s++) {
+            result.addAll(parts[s]);
         }
-        
         return result;
     }
 
-    public void sort(HashMap<Integer, List<String>> reducedResult, String filename) throws CommunicationException {
+    /**
+     * Write the words in increasing order of occurences, in UTF-8 : the buckets
+     * are already in order, so there is nothing to sort
+     * @param reducedResult the words grouped by occurences
+     * @param filename the file to write
+     */
+    public void sort(FrequencyBuckets reducedResult, String filename) throws CommunicationException {
 
         // Open the file to write the result
 
-        BufferedWriter br = null;
+        OutputStream br = null;
         try {
-            br = new BufferedWriter(new FileWriter(filename));
-            List<Integer> keys = reducedResult.keySet()
-                            .stream()
-                            .sorted()
-                            .collect(Collectors.toList()) ;
-
-            for (Integer i : keys) {
-                List<String> value = reducedResult.get(i);
-                StringBuilder sb = new StringBuilder("" + i + " : [");
-                for (String s : value) {
-                    sb.append(s).append(", ");
+            br = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+            FrequencyBuckets.BucketCursor pair = reducedResult.cursor();
+            while (pair.next()) {
+                br.write((pair.count() + " : [").getBytes(StandardCharsets.UTF_8));
+                FrequencyBuckets.WordIterator word = pair.bucket().words();
+                boolean first = true;
+                while (word.next()) {
+                    if (!first) {
+                        br.write(WORD_SEPARATOR);
+                    }
+                    br.write(word.bytes(), word.offset(), word.length());
+                    first = false;
                 }
-                sb.delete(sb.length()-2, sb.length());
-                sb.append("]\n");
-                br.write(sb.toString());
-                br.flush();
+                br.write(LINE_END);
             }
 
             // Range myRange = globalRange.computeMachineRange(this.id, NB_SLAVES);
@@ -639,21 +1318,24 @@ public class Slave extends Thread {
             //         br.flush();
             //     }
             // }
+            // the file must be complete before the master knows the result is written
+            br.close();
+            br = null;
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
         } finally {
-            serverForMaster.sendObject(SynchronizationMessage.END);
             if (br != null) {
                 try {
                     br.close();
                 } catch (Exception e) {
                     e.printStackTrace();
-                    System.exit(1);
                 }
             }
         }
 
+        serverForMaster.sendObject(SynchronizationMessage.END);
+
     }
 
 }
@@ -1,70 +1,115 @@
 package src.slave;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.HashMap;
-// import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import src.Client;
-import src.CommunicationException;
-import src.SynchronizationMessage;
+import src.Statistics;
 
 /**
  * SlaveClientThread.java
  * 
- * A Thread for a slave node to send data.
+ * A Thread for a slave node to send data to the {@link ShuffleEndpoint} of another slave,
+ * as a stream of batches encoded in the binary format of the shuffle,
+ * on the connection of the {@link PeerMesh} to this slave.
+ *
+ * The batches are given with {@link #send(Object)} while they are produced, and at most
+ * <code>maxInFlight</code> of them wait to be sent : the producer is blocked when the
+ * queue is full, so the memory used doesn't depend on the size of the whole partition.
+ * The stream is ended with {@link #close()}. The frames are compressed or not by a {@link ShuffleCompressor}.
  */
-public class SlaveClientThread<K, V> extends Thread {
+public class SlaveClientThread<T> extends Thread implements BatchSender<T> {
 
-    // private static final int MAX_ELEMENTS = 1_000_000;
+    private static final Object END = new Object();
 
-    private final Client client;
-    private final HashMap<K,V> object;
+    private final PeerMesh mesh;
+    private final int peer;
+    private final ShuffleCodec.Encoder<T> encoder;
+    private final ByteBuffer endOfStream;
+    private final BlockingQueue<Object> batches;
+    private final ShuffleCompressor compressor;
+    private final Statistics statistics;
+
+    private int nbBatches = 0;
+    private long nbBytes = 0;
     
     /**
      * Constructor.
-     * @param serverHost the hostname of the server
-     * @param serverPort the port of the server
-     * @param object Serializable object to send
+     * @param mesh the connections to the other slaves
+     * @param peer the id of the slave to send the data to
+     * @param encoder the encoder of a batch into a frame
+     * @param endOfStream the frame which ends the stream
+     * @param maxInFlight the maximum number of batches waiting to be sent
+     * @param statistics the statistics of the slave, where to count the bytes sent
      */
-    public SlaveClientThread(String serverHost, int serverPort, HashMap<K,V> object) {
-        this.client = new Client(serverHost, serverPort);
-        this.object = object;
-        // printOut("-> client thread for " + serverHost + ":" + serverPort
-        //        + " to send " + object);
+    public SlaveClientThread(PeerMesh mesh, int peer, ShuffleCodec.Encoder<T> encoder,
+            ByteBuffer endOfStream, int maxInFlight, Statistics statistics) {
+        this.mesh = mesh;
+        this.peer = peer;
+        this.encoder = encoder;
+        this.endOfStream = endOfStream;
+        this.batches = new ArrayBlockingQueue<Object>(maxInFlight + 1);
+        this.compressor = new ShuffleCompressor(statistics);
+        this.statistics = statistics;
+    }
+
+    /**
+     * Give a batch to send, waiting if too many batches are not sent yet.
+     * The batch must not be modified afterwards.
+     * @param batch the batch to send
+     */
+    @Override
+    public void send(T batch) {
+        put(batch);
+    }
+
+    /**
+     * End the stream, once all the batches are sent.
+     */
+    public void close() {
+        put(END);
+    }
+
+    private void put(Object o) {
+        try {
+            batches.put(o);
+        } catch (InterruptedException e) {
+            printErr("interrupted while waiting to send a batch");
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
     
+    @SuppressWarnings("unchecked")
     @Override
     public void run() {
         try {
-            this.client.openConnection();
-            printOut("connected to " + this.client.getAddress());
-            this.client.sendObject(this.object);
-
-            // Version with pairs
-            // for (K key : this.object.keySet()) {
-            //     this.client.sendObject(new Pair<K,V>(key, this.object.get(key)));
-            // }
-
-            // Version with multiple HashMap
-            // int nbPackets = this.object.size() / MAX_ELEMENTS + 1;
-            // for (int i = 0; i < nbPackets; i++) {
-            //     int start = i * MAX_ELEMENTS;
-            //     int end = Math.min((i + 1) * MAX_ELEMENTS, this.object.size());
-            //     HashMap<K,V> subObject = new HashMap<K,V>(this.object);
-            //     subObject.keySet().retainAll(this.object.keySet().stream()
-            //      .skip(start).limit(end - start).collect(Collectors.toList()));
-            //     this.client.sendObject(subObject);
-            //     printOut("sent data of " + subObject.size() + " elements");
-            // }
-            printOut("sent " + this.object.size() + " elements");
-            // this.client.sendObject(SynchronizationMessage.COMMUNICATION_END);
-            this.client.closeConnection();
-        } catch (CommunicationException e) {
-            printErr("error during communication : " + e.getMessage());
+            Object batch;
+            while ((batch = batches.take()) != END) {
+                // the time waiting for the batch is not spent on the link
+                long start = System.nanoTime();
+                ByteBuffer frame = compressor.compress(this.encoder.encode((T) batch));
+                int size = frame.remaining();
+                nbBatches++;
+                nbBytes += size;
+                mesh.write(peer, frame);
+                compressor.sent(size, System.nanoTime() - start);
+            }
+            mesh.write(peer, endOfStream.duplicate());
+            if (ShuffleCodec.getPhase(endOfStream) == ShuffleCodec.PHASE_COUNT) {
+                statistics.add(Statistics.partitionBytes(peer), nbBytes);
+            }
+            printOut("sent " + nbBatches + " batches (" + nbBytes + " bytes) to " + mesh.getAddress(peer));
+        } catch (IOException e) {
+            printErr("error during communication with " + mesh.getAddress(peer) + " : " + e.getMessage());
             System.exit(1);
         } catch (Throwable e) {
             printErr("error : " + e.getMessage());
             System.exit(1);
+        } finally {
+            compressor.end();
         }
     }
 
@@ -0,0 +1,360 @@
+package src.slave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import src.Statistics;
+import src.WordCounts;
+import src.WordCursor;
+
+/**
+ * SortedRun.java
+ *
+ * The words and counts of a table spilled to the disk by a map thread when the table exceeds its memory budget,
+ * sorted by the bytes of the words (unsigned) so that several runs can be merged with a k-way merge,
+ * each word being read once from each run.
+ *
+ * <h2>Format of a run</h2>
+ *
+ * For each word : its length (an int), its UTF-8 bytes and its count (an int). The run ends with a length of -1.
+ *
+ * Other sorted sources of words, like the sorted frames of the shuffle, can be merged the same way
+ * as a {@link Source}.
+ */
+public class SortedRun {
+
+    /**
+     * The estimated memory used by a word in a table, in addition to its bytes
+     * (the String or the entry of the arena, and the slots of the table).
+     */
+    public static final int ENTRY_OVERHEAD = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // maximum number of runs merged at once, to bound the open files and the buffers
+    private static final int MAX_FAN_IN = 64;
+
+    private interface Sink {
+        void add(byte[] word, int length, int count) throws IOException;
+    }
+
+    /**
+     * Words with their counts read in increasing order of their bytes, each word at most once.
+     */
+    public interface Source extends Closeable {
+
+        /**
+         * Move to the next word.
+         * @return true if there is a next word, false if the source is finished
+         * @throws IOException if the source can't be read
+         */
+        boolean next() throws IOException;
+
+        /**
+         * @return the buffer containing the current word encoded in UTF-8, only valid until the next move
+         */
+        byte[] bytes();
+
+        /**
+         * @return the index of the first byte of the current word in {@link #bytes()}
+         */
+        int offset();
+
+        /**
+         * @return the number of bytes of the current word
+         */
+        int length();
+
+        /**
+         * @return the count of the current word
+         */
+        int count();
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    private SortedRun() {
+    }
+
+    /**
+     * Write the words of a table to a new run.
+     * @param table the words to spill
+     * @param directory the directory of the run, created if needed
+     * @param prefix the prefix of the name of the run
+     * @param statistics the statistics where to count the runs, their bytes and the time to write them
+     * @return the file of the run
+     * @throws IOException if the run can't be written
+     */
+    public static File spill(WordCounts table, File directory, String prefix, Statistics statistics)
+            throws IOException {
+        long start = System.nanoTime();
+
+        byte[][] words = sort(table);
+        File run = newRun(directory, prefix);
+        try (DataOutputStream out = open(run)) {
+            for (byte[] word : words) {
+                out.writeInt(word.length - 4);
+                // the bytes of the word followed by the count
+                out.write(word);
+            }
+            out.writeInt(-1);
+        }
+
+        statistics.add(Statistics.SPILL_RUNS, 1);
+        statistics.add(Statistics.SPILL_BYTES, run.length());
+        statistics.add(Statistics.SPILL_TIME, System.nanoTime() - start);
+        return run;
+    }
+
+    /**
+     * Merge runs into a table and delete them.
+     * The runs are read together in the order of the words, so the occurences of a word
+     * in all the runs are summed before it is added to the table. When there are too many runs
+     * to read them together, groups of runs are first merged into bigger runs.
+     * @param runs the runs to merge
+     * @param table the table where to add the words
+     * @param statistics the statistics where to count the time to merge
+     * @throws IOException if a run can't be read
+     */
+    public static void merge(List<File> runs, WordCounts table, Statistics statistics) throws IOException {
+        long start = System.nanoTime();
+        mergeRuns(reduceFanIn(runs), table::add);
+        statistics.add(Statistics.SPILL_TIME, System.nanoTime() - start);
+    }
+
+    /**
+     * Open runs to merge them with other sources, see {@link #mergeSources(List, WordCounts)}.
+     * When there are too many runs to read them together, groups of runs are first merged into bigger runs.
+     * Each run is deleted when its source is closed.
+     * @param runs the runs to open
+     * @param statistics the statistics where to count the time to merge the groups of runs
+     * @return the sources reading the runs, to close once merged
+     * @throws IOException if a run can't be read
+     */
+    public static List<Source> open(List<File> runs, Statistics statistics) throws IOException {
+        long start = System.nanoTime();
+        List<File> remaining = reduceFanIn(runs);
+        statistics.add(Statistics.SPILL_TIME, System.nanoTime() - start);
+
+        List<Source> readers = new ArrayList<Source>();
+        for (File run : remaining) {
+            readers.add(new Reader(run));
+        }
+        return readers;
+    }
+
+    /**
+     * Merge groups of runs into bigger runs, until there are at most {@link #MAX_FAN_IN} runs.
+     * @param runs the runs
+     * @return the runs to read together
+     * @throws IOException if a run can't be read or written
+     */
+    private static List<File> reduceFanIn(List<File> runs) throws IOException {
+        List<File> remaining = new ArrayList<File>(runs);
+        while (remaining.size() > MAX_FAN_IN) {
+            List<File> group = new ArrayList<File>(remaining.subList(0, MAX_FAN_IN));
+            remaining.subList(0, MAX_FAN_IN).clear();
+            File run = newRun(group.get(0).getParentFile(), "merge-");
+            try (DataOutputStream out = open(run)) {
+                mergeRuns(group, (word, length, count) -> {
+                    out.writeInt(length);
+                    out.write(word, 0, length);
+                    out.writeInt(count);
+                });
+                out.writeInt(-1);
+            }
+            remaining.add(run);
+        }
+        return remaining;
+    }
+
+    private static void mergeRuns(List<File> runs, Sink sink) throws IOException {
+        List<Source> readers = new ArrayList<Source>();
+        try {
+            for (File run : runs) {
+                readers.add(new Reader(run));
+            }
+            merge(readers, sink);
+        } finally {
+            for (Source reader : readers) {
+                reader.close();
+            }
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Merge sorted sources into a table. The occurences of a word in all the sources are summed
+     * before it is added to the table, so each word is added once.
+     * @param sources the sources to merge, which are not closed
+     * @param table the table where to add the words
+     * @throws IOException if a source can't be read
+     */
+    public static void mergeSources(List<? extends Source> sources, WordCounts table) throws IOException {
+        merge(sources, table::add);
+    }
+
+    private static void merge(List<? extends Source> sources, Sink sink) throws IOException {
+        PriorityQueue<Source> heads = new PriorityQueue<Source>(Math.max(1, sources.size()),
+            (a, b) -> compare(a.bytes(), a.offset(), a.length(), b.bytes(), b.offset(), b.length()));
+        for (Source source : sources) {
+            if (source.next()) {
+                heads.add(source);
+            }
+        }
+
+        byte[] word = new byte[64];
+        while (!heads.isEmpty()) {
+            Source first = heads.poll();
+            int length = first.length();
+            if (word.length < length) {
+                word = new byte[Math.max(length, 2 * word.length)];
+            }
+            System.arraycopy(first.bytes(), first.offset(), word, 0, length);
+            int count = first.count();
+            if (first.next()) {
+                heads.add(first);
+            }
+            // the same word in the other sources
+            while (!heads.isEmpty() && compare(heads.peek().bytes(), heads.peek().offset(), heads.peek().length(),
+                    word, 0, length) == 0) {
+                Source same = heads.poll();
+                count += same.count();
+                if (same.next()) {
+                    heads.add(same);
+                }
+            }
+            sink.add(word, length, count);
+        }
+    }
+
+    /**
+     * Sort the words of a table by their bytes.
+     * @param table the words to sort
+     * @return for each word in order, its bytes followed by its count (4 bytes, big-endian)
+     */
+    public static byte[][] sort(WordCounts table) {
+        byte[][] words = new byte[table.size()][];
+        WordCursor cursor = table.cursor();
+        int n = 0;
+        while (cursor.next()) {
+            byte[] word = Arrays.copyOf(cursor.wordBytes(), cursor.wordLength() + 4);
+            int count = cursor.count();
+            for (int b = 0; b < 4; b++) {
+                word[cursor.wordLength() + b] = (byte) (count >>> (24 - 8 * b));
+            }
+            words[n++] = word;
+        }
+        Arrays.sort(words, 0, n, (a, b) -> compare(a, 0, a.length - 4, b, 0, b.length - 4));
+        return words;
+    }
+
+    /**
+     * Get the count of a word sorted by {@link #sort(WordCounts)}.
+     * @param entry the bytes of the word followed by its count
+     * @return the count
+     */
+    public static int countOf(byte[] entry) {
+        int n = entry.length;
+        return (entry[n - 4] & 0xFF) << 24 | (entry[n - 3] & 0xFF) << 16 | (entry[n - 2] & 0xFF) << 8
+            | (entry[n - 1] & 0xFF);
+    }
+
+    private static File newRun(File directory, String prefix) throws IOException {
+        directory.mkdirs();
+        File run = File.createTempFile(prefix, ".run", directory);
+        run.deleteOnExit();
+        return run;
+    }
+
+    private static DataOutputStream open(File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+    }
+
+    /**
+     * Compare the bytes of two words, as unsigned bytes.
+     */
+    static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int c = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * A reader of the words of a run, in order, deleting the run once closed.
+     */
+    private static class Reader implements Source {
+
+        private final File run;
+        private final DataInputStream in;
+        private byte[] word = new byte[64];
+        private int length;
+        private int count;
+
+        Reader(File run) throws IOException {
+            this.run = run;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            length = in.readInt();
+            if (length < 0) {
+                return false;
+            }
+            if (word.length < length) {
+                word = new byte[Math.max(length, 2 * word.length)];
+            }
+            in.readFully(word, 0, length);
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public byte[] bytes() {
+            return word;
+        }
+
+        @Override
+        public int offset() {
+            return 0;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            run.delete();
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package src.slave;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * SplitReader.java
+ *
+ * Reads the split files of a slave through memory-mapped windows
+ * and gives them chunk by chunk to the map phase, without decoding them,
+ * so that the whole portion is never loaded in the heap.
+ *
+ * The chunks are line-aligned : a chunk always ends with a new line
+ * (or with the end of a file), so no word is cut between two chunks.
+ * A line longer than a window is cut after its last delimiter between words.
+ */
+public class SplitReader {
+
+    /**
+     * Size of the part of a file mapped in memory at once.
+     */
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Approximate size of a chunk given to the consumer, in bytes.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * A consumer of the chunks of text read from the splits.
+     */
+    public interface ChunkConsumer {
+        /**
+         * Process a chunk of UTF-8 encoded text.
+         * @param chunk the chunk, from its position to its limit. It is a view of a mapped window of the file,
+         * which stays valid after the call : it can be processed by another thread
+         */
+        void accept(ByteBuffer chunk);
+    }
+
+    /**
+     * A source of the split files to read, asked for the next one each time a file has been read.
+     */
+    public interface SplitSource {
+        /**
+         * Get the next split file to read.
+         * @return the name (whole path) of the file, or null if there is no more file to read
+         * @throws IOException if the next file can't be known
+         */
+        String next() throws IOException;
+    }
+
+    private final SplitSource source;
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     * @param filenames the names (whole paths) of the split files to read
+     * @throws FileNotFoundException if one of the files doesn't exist
+     */
+    public SplitReader(String[] filenames) throws FileNotFoundException {
+        for (String filename : filenames) {
+            if (!new File(filename).isFile()) {
+                throw new FileNotFoundException("Split file not found : " + filename);
+            }
+        }
+        Iterator<String> iterator = Arrays.asList(filenames).iterator();
+        this.source = () -> iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Constructor for split files known one after the other, while reading them.
+     * @param source the source of the names of the split files
+     */
+    public SplitReader(SplitSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Stop the reading after the current chunk, for example from the consumer.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Read all the split files and give their content chunk by chunk to the consumer,
+     * until the end of the files or a call to {@link #stop()}.
+     * @param consumer the consumer of the chunks
+     * @throws IOException if a file can't be read
+     */
+    public void forEachChunk(ChunkConsumer consumer) throws IOException {
+        String filename;
+        while (!stopped && (filename = source.next()) != null) {
+            readFile(filename, consumer);
+        }
+    }
+
+    /**
+     * Read one file by mapping successive windows of it.
+     * @param filename the name of the file to read
+     * @param consumer the consumer of the chunks
+     * @throws IOException if the file can't be read
+     */
+    private void readFile(String filename, ChunkConsumer consumer) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size && !stopped) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean lastWindow = position + length == size;
+                int consumed = readWindow(window, lastWindow, consumer);
+                if (consumed == 0) {
+                    // a single line is longer than the window : cut it between two words
+                    consumed = lastIndexOfDelimiter(window, 0, window.limit()) + 1;
+                    if (consumed == 0) {
+                        consumed = window.limit();
+                    }
+                    window.limit(consumed);
+                    consumer.accept(window);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Give the complete lines of a window chunk by chunk to the consumer.
+     * @param window the mapped part of the file
+     * @param lastWindow true if the window ends with the end of the file
+     * @param consumer the consumer of the chunks
+     * @return the number of bytes consumed, the remaining ones have to be read in the next window
+     */
+    private int readWindow(ByteBuffer window, boolean lastWindow, ChunkConsumer consumer) {
+        int limit = window.limit();
+        int start = 0;
+        while (start < limit && !stopped) {
+            int end = Math.min(start + CHUNK_SIZE, limit);
+            if (end < limit || !lastWindow) {
+                int newLine = lastIndexOfNewLine(window, start, end);
+                if (newLine < 0) {
+                    newLine = indexOfNewLine(window, end, limit);
+                }
+                if (newLine >= 0) {
+                    end = newLine + 1;
+                } else if (!lastWindow) {
+                    break;
+                } else {
+                    end = limit;
+                }
+            }
+            ByteBuffer chunk = window.duplicate();
+            chunk.position(start).limit(end);
+            consumer.accept(chunk);
+            start = end;
+        }
+        return start;
+    }
+
+    private static int lastIndexOfNewLine(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfDelimiter(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (Tokenizer.isDelimiter(buffer.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfNewLine(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
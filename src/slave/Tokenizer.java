@@ -0,0 +1,121 @@
+package src.slave;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer.java
+ *
+ * Splits UTF-8 encoded text into lower-cased words, directly on the bytes.
+ *
+ * The words are separated exactly like with the regular expression <code>[\p{Punct}|\s]+</code> :
+ * the delimiters are the ASCII punctuation characters and the ASCII white spaces.
+ * Since all of them are single bytes in UTF-8 which never appear inside a multi-byte character,
+ * the text doesn't need to be decoded to find the words.
+ *
+ * The ASCII letters are lower-cased while the word is copied into a reusable buffer.
+ * Only the words containing other characters are decoded into a String
+ * to be lower-cased like with {@link String#toLowerCase()}.
+ */
+public class Tokenizer {
+
+    /**
+     * A consumer of the words found by the tokenizer.
+     */
+    public interface WordSink {
+        /**
+         * Process a word.
+         * @param word the buffer containing the lower-cased word encoded in UTF-8,
+         * only valid during the call
+         * @param length the length of the word in the buffer
+         */
+        void accept(byte[] word, int length);
+    }
+
+    private static final String PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+    private static final String WHITE_SPACES = " \t\n\u000B\f\r";
+
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        for (char c : (PUNCTUATION + WHITE_SPACES).toCharArray()) {
+            DELIMITERS[c] = true;
+        }
+    }
+
+    /**
+     * True if lower-casing ASCII letters one by one gives the same result as {@link String#toLowerCase()}
+     * with the default locale (it is not the case for the turkish 'I' for example).
+     */
+    private static final boolean ASCII_LOWER_CASE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase()
+        .equals("abcdefghijklmnopqrstuvwxyz");
+
+    private byte[] word = new byte[64];
+    private int length = 0;
+    private boolean ascii = true;
+
+    /**
+     * Check if a byte of UTF-8 encoded text is a delimiter between words.
+     * @param b the byte to check
+     * @return true if the byte is an ASCII punctuation character or white space
+     */
+    public static boolean isDelimiter(byte b) {
+        return b >= 0 && DELIMITERS[b];
+    }
+
+    /**
+     * Give all the words of a chunk of text to the sink.
+     * The chunk must not end in the middle of a word.
+     * @param chunk the UTF-8 encoded text, read from its position to its limit
+     * @param sink the consumer of the words
+     */
+    public void tokenize(ByteBuffer chunk, WordSink sink) {
+        int limit = chunk.limit();
+        for (int i = chunk.position(); i < limit; i++) {
+            byte b = chunk.get(i);
+            if (b >= 0) {
+                if (DELIMITERS[b]) {
+                    endWord(sink);
+                    continue;
+                }
+                if (b >= 'A' && b <= 'Z') {
+                    if (ASCII_LOWER_CASE) {
+                        b += 'a' - 'A';
+                    } else {
+                        ascii = false;
+                    }
+                }
+            } else {
+                ascii = false;
+            }
+            if (length == word.length) {
+                byte[] bigger = new byte[2 * length];
+                System.arraycopy(word, 0, bigger, 0, length);
+                word = bigger;
+            }
+            word[length++] = b;
+        }
+        endWord(sink);
+    }
+
+    /**
+     * Give the current word, if any, to the sink and reset the buffer.
+     * @param sink the consumer of the word
+     */
+    private void endWord(WordSink sink) {
+        if (length == 0) {
+            return;
+        }
+        if (ascii) {
+            sink.accept(word, length);
+        } else {
+            byte[] lowerCase = new String(word, 0, length, StandardCharsets.UTF_8)
+                .toLowerCase()
+                .getBytes(StandardCharsets.UTF_8);
+            sink.accept(lowerCase, lowerCase.length);
+        }
+        length = 0;
+        ascii = true;
+    }
+
+}
@@ -0,0 +1,101 @@
+package src.slave;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import src.Config;
+import src.ShardedWordCounts;
+import src.Statistics;
+import src.Utils;
+import src.WordCounts;
+import src.WordCursor;
+
+/**
+ * WordFilter.java
+ *
+ * The filters applied by a slave to its reduced words before sorting them, so that the sort
+ * only moves the words of the output : a minimum and a maximum number of occurences
+ * ({@link Config#MIN_COUNT}, {@link Config#MAX_COUNT}) and a list of stop words ({@link Config#STOP_WORDS}).
+ *
+ * A word dropped is counted in the statistics of the first filter dropping it.
+ */
+public class WordFilter {
+
+    private final int minCount;
+    private final int maxCount;
+    private final Set<String> stopWords;
+    // the hashes of the stop words, to create a String only for the words which may be stop words
+    private final Set<Integer> stopWordHashes = new HashSet<Integer>();
+
+    /**
+     * Create the filters of the configuration, reading the stop words if any.
+     * @throws IOException if the file of the stop words can't be read
+     */
+    public WordFilter() throws IOException {
+        this.minCount = Config.MIN_COUNT;
+        this.maxCount = Config.MAX_COUNT > 0 ? Config.MAX_COUNT : Integer.MAX_VALUE;
+        this.stopWords = new HashSet<String>();
+        if (Config.STOP_WORDS != null && !Config.STOP_WORDS.isEmpty()) {
+            // one word per line, lower-cased like by the tokenizer
+            for (String line : Files.readAllLines(Paths.get(Config.STOP_WORDS), StandardCharsets.UTF_8)) {
+                String word = line.trim().toLowerCase();
+                if (!word.isEmpty()) {
+                    stopWords.add(word);
+                    stopWordHashes.add(word.hashCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if there is at least one filter.
+     * @return false if no word can be dropped
+     */
+    public boolean isActive() {
+        return minCount > 1 || maxCount < Integer.MAX_VALUE || !stopWords.isEmpty();
+    }
+
+    /**
+     * Copy the words which pass the filters, shard by shard in parallel if the words are sharded.
+     * @param words the words to filter
+     * @param statistics the statistics where to count the words dropped by each filter
+     * @return the words kept, in a table of the same kind
+     */
+    public WordCounts apply(WordCounts words, Statistics statistics) {
+        if (!(words instanceof ShardedWordCounts)) {
+            WordCounts result = WordCounts.create(words.size());
+            copy(words, result, statistics);
+            return result;
+        }
+        ShardedWordCounts sharded = (ShardedWordCounts) words;
+        ShardedWordCounts result = new ShardedWordCounts(sharded.getNbShards(), sharded.size());
+        Utils.runInParallel(sharded.getNbShards(), s -> copy(sharded.getShard(s), result.getShard(s), statistics));
+        return result;
+    }
+
+    private void copy(WordCounts words, WordCounts result, Statistics statistics) {
+        long belowMin = 0;
+        long aboveMax = 0;
+        long stopped = 0;
+        WordCursor cursor = words.cursor();
+        while (cursor.next()) {
+            if (cursor.count() < minCount) {
+                belowMin++;
+            } else if (cursor.count() > maxCount) {
+                aboveMax++;
+            } else if (stopWordHashes.contains(cursor.hash()) && stopWords.contains(cursor.word())) {
+                stopped++;
+            } else {
+                result.add(cursor);
+            }
+        }
+        statistics.add(Statistics.FILTER_MIN_COUNT, belowMin);
+        statistics.add(Statistics.FILTER_MAX_COUNT, aboveMax);
+        statistics.add(Statistics.FILTER_STOP_WORDS, stopped);
+    }
+
+}